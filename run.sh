@@ -7,9 +7,11 @@ else
 fi
 
 module_path=$(cat $dir/classpath):$dir/target/classes
-JAVA=$SDKMAN_CANDIDATES_DIR/java/18.0.1.1-open/bin/java
+# Needs Java 21, the pinned SDKMAN candidate unless JAVA_HOME is set.
+JAVA=${JAVA_HOME:-$SDKMAN_CANDIDATES_DIR/java/21.0.1-tem}/bin/java
 $JAVA -XX:MaxRAMPercentage=5.0 \
       -XX:+UseZGC \
       --enable-preview \
+      --add-exports jdk.compiler/com.sun.tools.javac.api=com.github.andirady.jlangd \
       -p $module_path \
       -m com.github.andirady.jlangd/com.github.andirady.jlangd.Main $@
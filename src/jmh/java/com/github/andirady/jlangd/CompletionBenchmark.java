@@ -0,0 +1,46 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.lsp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Completion after {@code names.si} and after {@code Mat}, from scratch and
+ * again from the session of the previous completion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompletionBenchmark {
+
+    @Param({ "member", "identifier" })
+    String position;
+
+    private Fixtures.Sample sample;
+    private Position at;
+
+    @Setup
+    public void setup() {
+        sample = Fixtures.sample("completion", 20);
+        at = sample.positions().get(position);
+        sample.diagnose();
+        if (complete().getItems().isEmpty()) {
+            throw new IllegalStateException("No completion at " + position);
+        }
+    }
+
+    @Benchmark
+    public CompletionList complete() {
+        sample.project().completionSession(sample.uri(), null);
+        return new SuggestCompletion(sample.project(), sample.uri()).complete(at);
+    }
+
+    @Benchmark
+    public CompletionList refine() {
+        return new SuggestCompletion(sample.project(), sample.uri()).complete(at);
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.lsp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Diagnosing a small and a large source, from scratch and after an edit
+ * inside a method body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DiagnoseBenchmark {
+
+    @Param({ "20", "500" })
+    int methods;
+
+    private Fixtures.Sample sample;
+    private Position at;
+    private boolean inserted;
+
+    @Setup
+    public void setup() {
+        sample = Fixtures.sample("diagnose-" + methods, methods);
+        at = sample.positions().get("local");
+        sample.diagnose();
+    }
+
+    @Benchmark
+    public int full() {
+        return sample.project().diagnose(List.of(sample.uri())).size();
+    }
+
+    @Benchmark
+    public int afterEdit() {
+        var end = new Position(at.getLine(), at.getCharacter() + (inserted ? 1 : 0));
+        sample.source().patch(new Range(at, end), inserted ? "" : "_");
+        inserted = !inserted;
+
+        return sample.project().diagnose(sample.uri()).size();
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.andirady.jlangd;
+
+import com.sun.source.util.*;
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.tools.ToolProvider;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Finding unused imports and variables in an analyzed source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindUnusedBenchmark {
+
+    @Param({ "20", "500" })
+    int methods;
+
+    private JavacTask task;
+    private TaskEvent analyzed;
+
+    @Setup
+    public void setup() throws IOException {
+        var text = Fixtures.sample("unused-" + methods, methods).text();
+        var source = new JavaSource(URI.create("file:///bench/Sample.java"), text);
+        task = (JavacTask) ToolProvider.getSystemJavaCompiler().getTask(null, null, null, null, null, List.of(source));
+        task.addTaskListener(new TaskListener() {
+
+            @Override
+            public void finished(TaskEvent event) {
+                if (event.getKind() == TaskEvent.Kind.ANALYZE) {
+                    analyzed = event;
+                }
+            }
+        });
+        task.parse();
+        task.analyze();
+    }
+
+    @Benchmark
+    public int find() {
+        return new FindUnused(task).find(analyzed).size();
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.andirady.jlangd;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import org.eclipse.lsp4j.*;
+
+/**
+ * Fixture projects for the benchmarks. They are generated from fixed
+ * templates into {@code target/jmh-fixtures}, so results do not depend on
+ * the network or on what happens to be in the local Maven repository.
+ */
+final class Fixtures {
+
+    static final Path ROOT = Path.of("target", "jmh-fixtures").toAbsolutePath();
+
+    /**
+     * Marker for the positions used by the benchmarks, removed from the
+     * generated source.
+     */
+    private static final String CURSOR = "|";
+
+    /**
+     * A project with a single source {@code bench/Sample.java} of about
+     * {@code 9 * methods} lines, plus the positions marked in it.
+     */
+    record Sample(Project project, String uri, String text, Map<String, Position> positions) {
+
+        JavaSource source() {
+            return project.getJavaSource(uri).orElseThrow();
+        }
+
+        void diagnose() {
+            project.diagnose(List.of(uri));
+        }
+    }
+
+    static Sample sample(String name, int methods) {
+        var sb = new StringBuilder("""
+                                   package bench;
+
+                                   import java.util.*;
+                                   import java.util.stream.*;
+
+                                   public class Sample {
+
+                                       private final Map<String, List<Integer>> values = new HashMap<>();
+
+                                   """);
+        for (var i = 0; i < methods; i++) {
+            sb.append("""
+                          public List<String> m%1$d(Map<String, Integer> in) {
+                              var out = new ArrayList<String>();
+                              in.forEach((k, v) -> out.add(k + v + %1$d));
+                              return out.stream().filter(s -> s.length() > %1$d)
+                                        .map(String::trim).sorted().collect(Collectors.toList());
+                          }
+
+                          int n%1$d(int x) { return Stream.of(x).mapToInt(y -> y * %1$d).sum(); }
+
+                      """.formatted(i));
+        }
+        sb.append("""
+                      public int |target(List<String> names) {
+                          var |total = 0;
+                          for (var name : names) {
+                              total += name.length();
+                          }
+                          total += names.si|ze();
+                          total += Mat|h.abs(total);
+                          return total;
+                      }
+                  }
+                  """);
+
+        var positions = new LinkedHashMap<String, Position>();
+        var keys = List.of("method", "local", "member", "identifier").iterator();
+        var text = new StringBuilder();
+        var lines = sb.toString().split("\n", -1);
+        for (var line = 0; line < lines.length; line++) {
+            var s = lines[line];
+            for (var col = s.indexOf(CURSOR); col >= 0; col = s.indexOf(CURSOR)) {
+                positions.put(keys.next(), new Position(line, col));
+                s = s.substring(0, col) + s.substring(col + 1);
+            }
+            text.append(s).append(line < lines.length - 1 ? "\n" : "");
+        }
+
+        try {
+            var dir = ROOT.resolve(name);
+            var srcDir = dir.resolve(Path.of("src", "main", "java"));
+            var file = srcDir.resolve(Path.of("bench", "Sample.java"));
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, text);
+
+            var project = new Project(dir, StandardCharsets.UTF_8, List.of(jar(name, 2_000)), List.of(), srcDir, null);
+            project.setDiagnosticsConsumer(d -> {});
+            var uri = file.toUri().toString();
+            project.addJavaSource(uri, text.toString());
+            return new Sample(project, uri, text.toString(), positions);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A jar of {@code count} empty class entries in a few packages, enough
+     * for the type name scan to see a realistic dependency.
+     */
+    static Path jar(String name, int count) throws IOException {
+        var jar = ROOT.resolve(name + ".jar");
+        Files.createDirectories(ROOT);
+        try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (var i = 0; i < count; i++) {
+                out.putNextEntry(new JarEntry("fixture/p" + (i % 20) + "/Generated" + i + "Type.class"));
+                out.write(new byte[] { (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe });
+                out.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+
+    private Fixtures() {
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.andirady.jlangd;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Scoring every type of the runtime image plus a generated jar, by camel
+ * humps, by prefix and by substring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FuzzyMatcherBenchmark {
+
+    @Param({ "HM", "Str", "ist" })
+    String pattern;
+
+    private TypeCatalogue catalogue;
+
+    @Setup
+    public void setup() throws IOException {
+        var classpath = Fixtures.jar("types", 20_000).toString();
+        catalogue = LoadTypes.catalogue(TypeNameIndex.open(null), classpath);
+    }
+
+    @Benchmark
+    public long matching() {
+        return catalogue.matching(new FuzzyMatcher(pattern)).count();
+    }
+}
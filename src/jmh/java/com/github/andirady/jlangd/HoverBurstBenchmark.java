@@ -0,0 +1,99 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.lsp4j.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+/**
+ * A burst of 200 hover requests at once, handled by the platform thread
+ * pool or by virtual threads ({@code --virtual.threads true}). The time of
+ * a burst is how long its slowest hover waited, the percentiles of every
+ * single hover are printed when the trial ends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HoverBurstBenchmark {
+
+    private static final int BURST = 200;
+
+    private Fixtures.Sample sample;
+    private Position at;
+    private long[] latencies;
+    private int count;
+    private boolean measuring;
+
+    @Setup
+    public void setup() {
+        sample = Fixtures.sample("hover", 200);
+        at = sample.positions().get("member");
+        sample.diagnose();
+        latencies = new long[BURST * 1024];
+        if (new GetHover().hover(sample.project(), sample.uri(), at).join() == null) {
+            throw new IllegalStateException("No hover at member");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void iteration(IterationParams params) {
+        measuring = params.getType() == IterationType.MEASUREMENT;
+    }
+
+    @TearDown
+    public void report() {
+        var sorted = Arrays.copyOf(latencies, Math.min(count, latencies.length));
+        Arrays.sort(sorted);
+        System.out.printf("%n%s threads, %d hovers: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                          Workers.VIRTUAL ? "Virtual" : "Platform",
+                          sorted.length,
+                          percentile(sorted, 0.50),
+                          percentile(sorted, 0.99),
+                          percentile(sorted, 1.0));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        var i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(i, 0)] / 1_000_000.0;
+    }
+
+    private int burst() {
+        var t0 = System.nanoTime();
+        var hovers = new ArrayList<CompletableFuture<Long>>(BURST);
+        for (var i = 0; i < BURST; i++) {
+            hovers.add(new GetHover().hover(sample.project(), sample.uri(), at)
+                                     .thenApply(h -> System.nanoTime() - t0));
+        }
+
+        var done = 0;
+        for (var hover : hovers) {
+            var latency = hover.join();
+            if (measuring && count < latencies.length) {
+                latencies[count++] = latency;
+            }
+            done++;
+        }
+
+        return done;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dvirtual.threads=false")
+    public int platform() {
+        return burst();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dvirtual.threads=true")
+    public int virtual() {
+        return burst();
+    }
+}
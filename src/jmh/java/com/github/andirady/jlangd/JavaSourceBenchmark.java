@@ -0,0 +1,73 @@
+package com.github.andirady.jlangd;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.lsp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Edit traces as editors send them: typing a word one notification per
+ * key, toggling a comment on twenty lines with multiple cursors, and
+ * replacing the whole document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaSourceBenchmark {
+
+    @Param({ "50", "1000" })
+    int methods;
+
+    private String text;
+    private JavaSource source;
+    private Position at;
+
+    @Setup
+    public void setup() {
+        var sample = Fixtures.sample("patch-" + methods, methods);
+        text = sample.text();
+        at = sample.positions().get("local");
+        source = new JavaSource(URI.create("file:///bench/Sample.java"), text);
+    }
+
+    private static TextDocumentContentChangeEvent change(int line, int from, int to, String text) {
+        return new TextDocumentContentChangeEvent(new Range(new Position(line, from), new Position(line, to)), text);
+    }
+
+    @Benchmark
+    public int typeWord() {
+        var word = "counter";
+        for (var i = 0; i < word.length(); i++) {
+            var c = at.getCharacter() + i;
+            source.patch(List.of(change(at.getLine(), c, c, word.substring(i, i + 1))));
+        }
+        source.patch(List.of(change(at.getLine(), at.getCharacter(), at.getCharacter() + word.length(), "")));
+
+        return source.lineOffset(at.getLine());
+    }
+
+    @Benchmark
+    public int toggleComment() {
+        var comment = new ArrayList<TextDocumentContentChangeEvent>();
+        var uncomment = new ArrayList<TextDocumentContentChangeEvent>();
+        for (var line = at.getLine() + 19; line >= at.getLine(); line--) {
+            comment.add(change(line, 0, 0, "// "));
+            uncomment.add(change(line, 0, 3, ""));
+        }
+        source.patch(comment);
+        source.patch(uncomment);
+
+        return source.lineOffset(at.getLine());
+    }
+
+    @Benchmark
+    public int replaceAll() {
+        source.patch(List.of(new TextDocumentContentChangeEvent(text)));
+
+        return source.lineOffset(at.getLine());
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.andirady.jlangd;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Type names of the runtime image plus a generated jar: scanned from
+ * scratch, and served from the catalogue once loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadTypesBenchmark {
+
+    private String classpath;
+    private TypeNameIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        classpath = Fixtures.jar("types", 20_000).toString();
+        index = TypeNameIndex.open(null);
+        LoadTypes.streamTypeNames(index, classpath, null).count();
+    }
+
+    @Benchmark
+    public long cold() {
+        return new LoadTypes().typeNames(TypeNameIndex.open(null), classpath, null).count();
+    }
+
+    @Benchmark
+    public long warm() {
+        return LoadTypes.streamTypeNames(index, classpath, null).count();
+    }
+
+    @Benchmark
+    public long warmFiltered() {
+        return LoadTypes.streamTypeNames(index, classpath, n -> n.endsWith("List")).count();
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.andirady.jlangd;
+
+import java.util.concurrent.TimeUnit;
+import org.eclipse.lsp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Renaming a local variable and a method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenameBenchmark {
+
+    @Param({ "local", "method" })
+    String symbol;
+
+    private Fixtures.Sample sample;
+    private Position at;
+
+    @Setup
+    public void setup() {
+        sample = Fixtures.sample("rename", 200);
+        at = sample.positions().get(symbol);
+        sample.diagnose();
+    }
+
+    @Benchmark
+    public WorkspaceEdit rename() {
+        return new RenameSymbol(sample.project(), sample.uri()).rename(at, "renamed");
+    }
+}
@@ -27,15 +27,16 @@ public final class AddImport {
     }
 
     public TextEdit addImport(TypeElement element) {
-        var tree = project.compilationUnitFor(uri);
-        var task = project.previousTask().orElseThrow();
-        var treesUtil = Trees.instance(task);
-        var sourcePositions = treesUtil.getSourcePositions();
-        tree.getImports().forEach(e -> {
-            var sp = sourcePositions.getStartPosition(tree, e);
-            var ep = sourcePositions.getStartPosition(tree, e);
-            LOG.fine(() -> e + " at " + sp + " - " + ep);
-        });
+        try (var result = project.taskForUri(uri, new Position(0, 0))) {
+            var tree = result.findTreeForUri(uri).orElseThrow();
+            var treesUtil = result.treesUtil();
+            var sourcePositions = treesUtil.getSourcePositions();
+            tree.getImports().forEach(e -> {
+                var sp = sourcePositions.getStartPosition(tree, e);
+                var ep = sourcePositions.getStartPosition(tree, e);
+                LOG.fine(() -> e + " at " + sp + " - " + ep);
+            });
+        }
         return null;
     }
 
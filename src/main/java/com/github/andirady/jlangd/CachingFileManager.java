@@ -0,0 +1,337 @@
+package com.github.andirady.jlangd;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+import javax.tools.*;
+
+/**
+ * A file manager that keeps what it read from the class path in memory, so
+ * a new compiler context does not list the same packages and read the same
+ * class files again. The standard file manager already keeps the archives
+ * it opened open.
+ * <p>
+ * The listing of a package is cached until one of its directories changed.
+ * The bytes of the class files in archives are cached up to the amount set
+ * with {@code --class.cache.bytes}. The archives are checked by {@link
+ * #refresh()}.
+ * <p>
+ * A class file written to a directory is only replaced when its bytes
+ * changed, and then atomically, as a compilation may be reading it.
+ */
+class CachingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private static final Logger LOG = Logger.getLogger(CachingFileManager.class.getName());
+    private static final long CLASS_BYTES = Long.getLong("class.cache.bytes", 64L << 20);
+    private static final int LISTINGS = 8192;
+
+    /**
+     * A package listed in a location. The location is keyed by its name and
+     * paths, javac creates a location of a module anew for each task.
+     */
+    private record Listing(String location,
+                           List<Path> paths,
+                           String packageName,
+                           Set<JavaFileObject.Kind> kinds) {}
+
+    /**
+     * The files of a listing, and the modification times of the directories
+     * of the package when it was listed.
+     */
+    private record Listed(List<Long> stamps, List<JavaFileObject> files) {}
+
+    /**
+     * A class file in an archive, read once.
+     */
+    private final class CachedClassFile extends ForwardingJavaFileObject<JavaFileObject> {
+
+        CachedClassFile(JavaFileObject file) {
+            super(file);
+        }
+
+        JavaFileObject unwrap() {
+            return fileObject;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            var key = toUri().toString();
+            var bytes = cachedBytes(key);
+            if (bytes == null) {
+                try (var in = super.openInputStream()) {
+                    bytes = in.readAllBytes();
+                }
+                cacheBytes(key, bytes);
+            }
+
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public String toString() {
+            return fileObject.toString();
+        }
+    }
+
+    /**
+     * A class file to write to a directory.
+     */
+    private final class GeneratedClassFile extends ForwardingJavaFileObject<JavaFileObject> {
+
+        GeneratedClassFile(JavaFileObject file) {
+            super(file);
+        }
+
+        JavaFileObject unwrap() {
+            return fileObject;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        replace(Path.of(toUri()), toByteArray());
+                    }
+                }
+            };
+        }
+
+        private void replace(Path path, byte[] bytes) throws IOException {
+            if (Files.isRegularFile(path) && Arrays.equals(Files.readAllBytes(path), bytes)) {
+                return;
+            }
+
+            Files.createDirectories(path.getParent());
+            var temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, bytes);
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            LOG.finer(() -> "Wrote " + path);
+            classesWritten.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return fileObject.toString();
+        }
+    }
+
+    private final Map<Listing, Listed> listings = new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Listing, Listed> eldest) {
+            return size() > LISTINGS;
+        }
+    };
+    // The modification times of the archives when they were first listed.
+    private final Map<Path, Long> archives = new HashMap<>();
+    private final Set<Path> directories = new HashSet<>();
+    private final LinkedHashMap<String, byte[]> classBytes = new LinkedHashMap<>(16, 0.75f, true);
+    private long classBytesSize;
+    private final AtomicLong classesWritten = new AtomicLong();
+
+    CachingFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public synchronized Iterable<JavaFileObject> list(Location location,
+                                                      String packageName,
+                                                      Set<JavaFileObject.Kind> kinds,
+                                                      boolean recurse) throws IOException {
+        var paths = recurse || location.isOutputLocation() ? null : pathsOf(location);
+        if (paths == null) {
+            return super.list(location, packageName, kinds, recurse);
+        }
+
+        var key = new Listing(location.getName(), paths, packageName, Set.copyOf(kinds));
+        var stamps = stamps(paths, packageName);
+        var listed = listings.get(key);
+        if (listed == null || !listed.stamps().equals(stamps)) {
+            var files = new ArrayList<JavaFileObject>();
+            for (var file : super.list(location, packageName, kinds, false)) {
+                files.add(file.getKind() == JavaFileObject.Kind.CLASS && "jar".equals(file.toUri().getScheme())
+                          ? new CachedClassFile(file)
+                          : file);
+            }
+            listed = new Listed(stamps, List.copyOf(files));
+            listings.put(key, listed);
+        }
+
+        return listed.files();
+    }
+
+    private List<Path> pathsOf(Location location) {
+        try {
+            var paths = fileManager.getLocationAsPaths(location);
+            if (paths == null) {
+                return null;
+            }
+
+            var list = new ArrayList<Path>();
+            paths.forEach(list::add);
+            return list;
+        } catch (IllegalArgumentException e) {
+            // A module oriented location.
+            return null;
+        }
+    }
+
+    /**
+     * The modification times of the package in each directory of the paths.
+     * The platform classes do not change, and the archives are checked by
+     * {@link #refresh()}.
+     */
+    private List<Long> stamps(List<Path> paths, String packageName) {
+        var stamps = new ArrayList<Long>();
+        for (var path : paths) {
+            if (path.getFileSystem() == FileSystems.getDefault() && !isArchive(path)) {
+                stamps.add(lastModified(path.resolve(packageName.replace('.', File.separatorChar))));
+            }
+        }
+
+        return stamps;
+    }
+
+    private boolean isArchive(Path path) {
+        if (archives.containsKey(path)) {
+            return true;
+        } else if (directories.contains(path)) {
+            return false;
+        } else if (Files.isRegularFile(path)) {
+            archives.put(path, lastModified(path));
+            return true;
+        }
+
+        directories.add(path);
+        return false;
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).to(TimeUnit.MICROSECONDS);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private byte[] cachedBytes(String uri) {
+        synchronized (classBytes) {
+            return classBytes.get(uri);
+        }
+    }
+
+    private void cacheBytes(String uri, byte[] bytes) {
+        synchronized (classBytes) {
+            var old = classBytes.put(uri, bytes);
+            classBytesSize += bytes.length - (old != null ? old.length : 0);
+            var it = classBytes.values().iterator();
+            while (classBytesSize > CLASS_BYTES && it.hasNext()) {
+                classBytesSize -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks whether an archive listed so far changed since. If one did, the
+     * listings and class bytes are dropped, and the standard file manager is
+     * closed so it opens the archives again when next used. Returns whether
+     * it did, a compiler context that read the old archive must not be
+     * reused then. Called holding the lock of the file manager, a class file
+     * of the old archive read meanwhile fails to load.
+     */
+    synchronized boolean refresh() {
+        var changed = archives.entrySet()
+                              .stream()
+                              .filter(e -> lastModified(e.getKey()) != e.getValue())
+                              .map(Map.Entry::getKey)
+                              .toList();
+        if (changed.isEmpty()) {
+            return false;
+        }
+
+        LOG.info(() -> "Reopening " + changed);
+        archives.keySet().removeAll(changed);
+        listings.clear();
+        synchronized (classBytes) {
+            classBytes.clear();
+            classBytesSize = 0;
+        }
+
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return true;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location,
+                                               String className,
+                                               JavaFileObject.Kind kind,
+                                               FileObject sibling) throws IOException {
+        var file = super.getJavaFileForOutput(location, className, kind, unwrap(sibling));
+        return kind == JavaFileObject.Kind.CLASS && "file".equals(file.toUri().getScheme())
+               ? new GeneratedClassFile(file)
+               : file;
+    }
+
+    /**
+     * The number of class files written with changed bytes so far.
+     */
+    long classesWritten() {
+        return classesWritten.get();
+    }
+
+    private static JavaFileObject unwrap(JavaFileObject file) {
+        if (file instanceof CachedClassFile c) {
+            return c.unwrap();
+        } else if (file instanceof GeneratedClassFile g) {
+            return g.unwrap();
+        }
+
+        return file;
+    }
+
+    private static FileObject unwrap(FileObject file) {
+        return file instanceof JavaFileObject j ? unwrap(j) : file;
+    }
+
+    // The standard file manager only knows its own file objects.
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        return super.inferBinaryName(location, unwrap(file));
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        return super.isSameFile(unwrap(a), unwrap(b));
+    }
+
+    @Override
+    public boolean contains(Location location, FileObject file) throws IOException {
+        return super.contains(location, unwrap(file));
+    }
+
+    @Override
+    public Location getLocationForModule(Location location, JavaFileObject file) throws IOException {
+        return super.getLocationForModule(location, unwrap(file));
+    }
+}
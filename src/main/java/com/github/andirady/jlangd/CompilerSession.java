@@ -0,0 +1,174 @@
+package com.github.andirady.jlangd;
+
+import com.sun.source.util.*;
+import com.sun.tools.javac.api.JavacTaskPool;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+import javax.tools.*;
+
+/**
+ * Hands out javac tasks whose context is kept once they are released, so
+ * the next compilation starts with the symbols already completed from the
+ * JDK and the class path. The classes compiled by a task are removed from
+ * the context before it is reused, see {@link JavacTaskPool}.
+ * <p>
+ * Packages and class files read once are not read again by a reused
+ * context, so the session is {@link #invalidate() invalidated} when the
+ * class path may have changed. The number of idle contexts kept is set with
+ * {@code --compiler.contexts}.
+ */
+final class CompilerSession {
+
+    private static final Logger LOG = Logger.getLogger(CompilerSession.class.getName());
+    private static final int CONTEXTS = Integer.getInteger("compiler.contexts", 2);
+    private static final ThreadFactory HOLDERS = Thread.ofVirtual().name("compiler-context-", 1).factory();
+
+    /**
+     * Thrown by the worker of a discarded task, so the pool drops its context.
+     */
+    private static final class Discarded extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Discarded() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A task of the session, held by the compilation that opened it and by
+     * whoever reads its trees. Its context goes back to the session once the
+     * last holder released it.
+     * <p>
+     * javac completes symbols lazily and none of it is thread safe, so only
+     * the thread holding the lock of the lease may use the task.
+     */
+    static final class Lease {
+
+        private final CompletableFuture<JavacTask> task = new CompletableFuture<>();
+        private final CompletableFuture<Boolean> released = new CompletableFuture<>();
+        private final CompletableFuture<Void> returned = new CompletableFuture<>();
+        private final AtomicInteger holders = new AtomicInteger(1);
+        private final ReentrantLock use = new ReentrantLock();
+        private volatile boolean reusable = true;
+
+        JavacTask task() {
+            return task.join();
+        }
+
+        /**
+         * Adds a holder, unless the last one already released the task.
+         */
+        boolean retain() {
+            var n = holders.get();
+            while (n > 0) {
+                if (holders.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+                n = holders.get();
+            }
+
+            return false;
+        }
+
+        void release() {
+            var n = holders.decrementAndGet();
+            if (n == 0) {
+                released.complete(reusable);
+            } else if (n < 0) {
+                throw new IllegalStateException("Released more often than retained");
+            }
+        }
+
+        void lock() {
+            use.lock();
+        }
+
+        boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+            return use.tryLock(timeout, unit);
+        }
+
+        void unlock() {
+            use.unlock();
+        }
+
+        /**
+         * Drops the context once released instead of reusing it, for a task
+         * that failed half way.
+         */
+        void discard() {
+            reusable = false;
+        }
+
+        /**
+         * Completes once the context was given back to the session, or
+         * dropped.
+         */
+        CompletableFuture<Void> returned() {
+            return returned;
+        }
+    }
+
+    private final JavaFileManager fileManager;
+    private volatile JavacTaskPool pool = new JavacTaskPool(CONTEXTS);
+
+    CompilerSession(JavaFileManager fileManager) {
+        this.fileManager = fileManager;
+    }
+
+    /**
+     * A task compiling the units, held by the caller. A pooled task is only
+     * valid while the worker given to the pool runs, so that worker waits on
+     * a virtual thread until the task is released.
+     */
+    Lease open(DiagnosticListener<? super JavaFileObject> listener,
+               List<String> options,
+               Iterable<? extends JavaFileObject> units) {
+        var lease = new Lease();
+        var pool = this.pool;
+        HOLDERS.newThread(() -> {
+            try {
+                pool.getTask(null, fileManager, listener, options, null, units, task -> {
+                    lease.task.complete(task);
+                    if (!lease.released.join()) {
+                        throw new Discarded();
+                    }
+
+                    return null;
+                });
+            } catch (Discarded e) {
+                LOG.fine("Discarded a compiler context");
+            } catch (RuntimeException | Error e) {
+                if (!lease.task.completeExceptionally(e)) {
+                    LOG.log(Level.WARNING, "Failed to return a compiler context", e);
+                }
+            } finally {
+                lease.returned.complete(null);
+            }
+        }).start();
+
+        try {
+            lease.task.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+
+            throw e;
+        }
+
+        return lease;
+    }
+
+    /**
+     * Stops reusing the contexts created so far. The tasks still held keep
+     * working, their contexts are dropped once released.
+     */
+    void invalidate() {
+        LOG.fine("Invalidated the compiler contexts");
+        pool = new JavacTaskPool(CONTEXTS);
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.logging.*;
+
+import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.messages.*;
+
+/**
+ * The suggestions found for an identifier being typed, kept so the next
+ * keystrokes in it filter them instead of compiling again.
+ * <p>
+ * A session applies while the text before the identifier and after the
+ * cursor is what it was, as the node at the cursor and its scope are then
+ * the same. Typing bumps the version of the source, so the text itself is
+ * compared.
+ */
+final class CompletionSession {
+
+    private static final Logger LOG = Logger.getLogger(CompletionSession.class.getName());
+
+    /** The most items returned, the list is incomplete when there are more. */
+    static final int LIMIT = Integer.getInteger("completion.limit", 100);
+
+    /**
+     * A suggestion and what its edits are made of. An executable has the
+     * name it is called by, its parameters keyed by type and name, and
+     * where the call is inserted. A type may need to be imported.
+     */
+    record Candidate(CompletionItem item, boolean type, String name, List<String> parameters, Position at) {
+
+        static Candidate of(CompletionItem item) {
+            return new Candidate(item, false, null, null, null);
+        }
+
+        static Candidate type(CompletionItem item) {
+            return new Candidate(item, true, null, null, null);
+        }
+
+        static Candidate call(CompletionItem item, String name, List<String> parameters, Position at) {
+            return new Candidate(item, false, name, parameters, at);
+        }
+    }
+
+    private record Scored(int score, Candidate candidate) {}
+
+    private final String text;
+    private final int cursor;
+    private final boolean truncated;
+    private final List<String> inScope;
+    private final int start;
+    private final List<Candidate> candidates;
+    private final List<String> imports;
+    private final Position importAt;
+    // The argument passed for each parameter key, by the scope at the cursor.
+    private final Map<String, String> arguments = new HashMap<>();
+
+    /**
+     * @param text the text the candidates were found in
+     * @param cursor the offset of the cursor in it
+     * @param truncated whether only the best matching candidates were kept,
+     *                  those of a longer prefix may not be among them
+     * @param inScope the names of the locals, members and static imports
+     *                found instead of the types, null if the types were
+     *                looked at. The list is then incomplete, and the types
+     *                are left out only while one of the names matches
+     * @param candidates the suggestions, for the identifier typed before the cursor
+     * @param imports the non-static imports of the source
+     * @param importAt where an import is added
+     */
+    CompletionSession(String text,
+                      int cursor,
+                      boolean truncated,
+                      List<String> inScope,
+                      List<Candidate> candidates,
+                      List<String> imports,
+                      Position importAt) {
+        this.text = text;
+        this.cursor = cursor;
+        this.truncated = truncated;
+        this.inScope = inScope;
+        this.start = identifierStart(text, cursor);
+        this.candidates = candidates;
+        this.imports = imports;
+        this.importAt = importAt;
+    }
+
+    /**
+     * Where the identifier ending at the offset starts.
+     */
+    static int identifierStart(CharSequence text, int offset) {
+        var start = Math.min(offset, text.length());
+        while (start > 0 && Character.isJavaIdentifierPart(text.charAt(start - 1)))
+            start--;
+
+        return start;
+    }
+
+    /**
+     * The suggestions for the text with the cursor at the offset, or null
+     * if the session does not apply to it.
+     */
+    synchronized CompletionList refine(String now, int offset, CancelChecker cancel) {
+        if (offset < start || offset > now.length() || identifierStart(now, offset) != start)
+            return null;
+
+        var tail = now.length() - offset;
+        if (tail != text.length() - cursor
+                || !now.regionMatches(0, text, 0, start)
+                || !now.regionMatches(offset, text, cursor, tail))
+            return null;
+
+        var typed = now.substring(start, offset);
+        var found = text.substring(start, cursor);
+        if (!typed.startsWith(found) || (truncated && !typed.equals(found)))
+            return null;
+
+        // As in SuggestCompletion#visitIdentifier, the types now match instead.
+        var matcher = new FuzzyMatcher(typed);
+        if (inScope != null && inScope.stream().noneMatch(n -> matcher.score(n) >= FuzzyMatcher.CAMEL_HUMPS))
+            return null;
+
+        return list(typed, key -> null, cancel);
+    }
+
+    /**
+     * The best ranked suggestions for the typed prefix, at most {@code
+     * --completion.limit} of them, with their edits. Candidates the {@link
+     * FuzzyMatcher} does not match to a prefix longer than the one they were
+     * found for are dropped.
+     *
+     * @param argument computes the argument of a parameter key not seen yet,
+     *                 null if it cannot, and so neither can the session
+     */
+    synchronized CompletionList list(String typed, Function<String, String> argument, CancelChecker cancel) {
+        var narrowed = typed.length() > cursor - start;
+        var matcher = new FuzzyMatcher(typed);
+        var matching = new ArrayList<Scored>();
+        for (var c : candidates) {
+            var score = matcher.score(c.item().getLabel());
+            if (!narrowed || score != FuzzyMatcher.NO_MATCH)
+                matching.add(new Scored(score, c));
+        }
+
+        matching.sort(Comparator.comparingInt((Scored s) -> -s.score())
+                                .thenComparing(s -> s.candidate().item().getLabel(), String.CASE_INSENSITIVE_ORDER)
+                                .thenComparing(s -> s.candidate().item().getLabel()));
+
+        var top = matching.size() > LIMIT ? matching.subList(0, LIMIT) : matching;
+        var items = new ArrayList<CompletionItem>(top.size());
+        for (var s : top) {
+            cancel.checkCanceled();
+            var c = s.candidate();
+            var item = copy(c.item());
+            // Clients sort by this, falling back to the label.
+            item.setSortText(String.format("%05d", items.size()));
+
+            if (c.parameters() != null) {
+                var args = new StringJoiner(", ");
+                for (var key : c.parameters()) {
+                    var arg = arguments.computeIfAbsent(key, argument);
+                    if (arg == null)
+                        return null;
+
+                    args.add(arg);
+                }
+
+                var call = c.name() + "(" + args + ")";
+                item.setTextEdit(Either.forLeft(new TextEdit(new Range(c.at(), c.at()), call)));
+            } else if (c.type()) {
+                importEdit(item);
+            }
+
+            items.add(item);
+        }
+
+        LOG.fine(() -> "Kept " + items.size() + " of " + matching.size() + " suggestions for " + typed);
+        return new CompletionList(matching.size() > LIMIT || inScope != null, items);
+    }
+
+    /**
+     * Adds the import of the item's type unless the source imports it.
+     */
+    private void importEdit(CompletionItem item) {
+        var pkg = item.getDetail();
+        if (pkg.isEmpty() || imports.stream()
+                                    .filter(imp -> imp.startsWith(pkg + "."))
+                                    .anyMatch(imp -> imp.endsWith(".*") || imp.endsWith(item.getLabel())))
+            return;
+
+        var edit = new TextEdit(new Range(importAt, importAt), "import " + pkg + "." + item.getLabel() + ";");
+        item.setAdditionalTextEdits(List.of(edit));
+    }
+
+    private static CompletionItem copy(CompletionItem template) {
+        var item = new CompletionItem(template.getLabel());
+        item.setKind(template.getKind());
+        item.setDetail(template.getDetail());
+        item.setData(template.getData());
+        item.setTextEdit(template.getTextEdit());
+        return item;
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.andirady.jlangd;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+import java.util.*;
+import javax.lang.model.element.*;
+
+/**
+ * Which types each source declares and references, as seen by the last
+ * build that compiled it, so a save compiles the saved source and the
+ * sources depending on it rather than everything open.
+ * <p>
+ * A reference is recorded by the outermost type declaring what it resolved
+ * to, so calling an inherited method references the type declaring it. A
+ * name that did not resolve is recorded as written, it depends on whichever
+ * source declares a type of that simple name.
+ */
+final class DependencyGraph {
+
+    private record Unit(Set<String> declared, Set<String> referenced) {
+
+        boolean references(Unit other) {
+            for (var type : other.declared()) {
+                if (referenced.contains(type) || referenced.contains(type.substring(type.lastIndexOf('.') + 1))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private final Map<String, Unit> units = new HashMap<>();
+
+    /**
+     * Records the types the analyzed tree declares and references.
+     */
+    void record(CompilationUnitTree tree, Trees trees) {
+        var declared = new HashSet<String>();
+        var referenced = new HashSet<String>();
+        new TreePathScanner<Void, Void>() {
+
+            @Override
+            public Void visitClass(ClassTree node, Void p) {
+                if (getCurrentPath().getParentPath().getLeaf() == tree
+                    && trees.getElement(getCurrentPath()) instanceof TypeElement type) {
+                    declared.add(type.getQualifiedName().toString());
+                }
+
+                return super.visitClass(node, p);
+            }
+
+            @Override
+            public Void visitIdentifier(IdentifierTree node, Void p) {
+                reference(node);
+                return super.visitIdentifier(node, p);
+            }
+
+            @Override
+            public Void visitMemberSelect(MemberSelectTree node, Void p) {
+                reference(node);
+                return super.visitMemberSelect(node, p);
+            }
+
+            private void reference(ExpressionTree node) {
+                var element = trees.getElement(getCurrentPath());
+                if (element == null) {
+                    referenced.add(node.toString());
+                    return;
+                }
+
+                TypeElement outermost = null;
+                for (var e = element; e != null; e = e.getEnclosingElement()) {
+                    if (e instanceof TypeElement type) {
+                        outermost = type;
+                    }
+                }
+
+                if (outermost != null) {
+                    referenced.add(outermost.getQualifiedName().toString());
+                }
+            }
+        }.scan(tree, null);
+        referenced.removeAll(declared);
+
+        var uri = tree.getSourceFile().toUri().toString();
+        synchronized (this) {
+            units.put(uri, new Unit(declared, referenced));
+        }
+    }
+
+    synchronized boolean contains(String uri) {
+        return units.containsKey(uri);
+    }
+
+    /**
+     * The recorded sources that reference a type the source declared when it
+     * was last compiled.
+     */
+    synchronized Set<String> dependents(String uri) {
+        var unit = units.get(uri);
+        if (unit == null) {
+            return Set.of();
+        }
+
+        var dependents = new HashSet<String>();
+        units.forEach((u, other) -> {
+            if (!u.equals(uri) && other.references(unit)) {
+                dependents.add(u);
+            }
+        });
+        return dependents;
+    }
+
+    /**
+     * Splits the sources into groups that do not reference each other, so
+     * each can be compiled on its own. All of them are a single group when
+     * one is not recorded yet.
+     */
+    synchronized List<List<String>> groups(List<String> uris) {
+        if (!uris.stream().allMatch(units::containsKey)) {
+            return uris.isEmpty() ? List.of() : List.of(uris);
+        }
+
+        // Union find over the indexes of the sources.
+        var parents = new int[uris.size()];
+        for (var i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+
+        for (var i = 0; i < parents.length; i++) {
+            var a = units.get(uris.get(i));
+            for (var j = i + 1; j < parents.length; j++) {
+                var b = units.get(uris.get(j));
+                if (a.references(b) || b.references(a)) {
+                    parents[root(parents, i)] = root(parents, j);
+                }
+            }
+        }
+
+        var groups = new LinkedHashMap<Integer, List<String>>();
+        for (var i = 0; i < parents.length; i++) {
+            groups.computeIfAbsent(root(parents, i), k -> new ArrayList<>()).add(uris.get(i));
+        }
+
+        return List.copyOf(groups.values());
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            i = parents[i] = parents[parents[i]];
+        }
+
+        return i;
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.logging.*;
+
+/**
+ * Diagnoses a document once its changes settle. Each change restarts the
+ * delay of the pending diagnose, at most one diagnose per document runs at a
+ * time, and changes made while it runs are coalesced into a single follow-up
+ * diagnose. The delay is set with {@code --diagnostics.delay <ms>}.
+ */
+final class DiagnosticsScheduler {
+
+    private static final Logger LOG = Logger.getLogger(DiagnosticsScheduler.class.getName());
+    static final long DEFAULT_DELAY_MS = 250;
+
+    private static final class Document {
+        long latest; // version of the last change
+        long running = -1; // version being diagnosed, or -1
+        boolean rerun;
+        ScheduledFuture<?> pending;
+    }
+
+    private final BiConsumer<Project, String> diagnose;
+    private final long delay;
+    private final ScheduledExecutorService timer;
+    private final Map<String, Document> documents;
+
+    DiagnosticsScheduler(BiConsumer<Project, String> diagnose) {
+        this(diagnose, Long.getLong("diagnostics.delay", DEFAULT_DELAY_MS));
+    }
+
+    DiagnosticsScheduler(BiConsumer<Project, String> diagnose, long delay) {
+        this.diagnose = diagnose;
+        this.delay = delay;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "diagnostics-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        this.documents = new HashMap<>();
+    }
+
+    /**
+     * Schedules a diagnose of the document after the configured delay,
+     * superseding any diagnose scheduled earlier.
+     */
+    void schedule(Project project, String uri) {
+        schedule(project, uri, delay);
+    }
+
+    synchronized void schedule(Project project, String uri, long delayMs) {
+        var doc = documents.computeIfAbsent(uri, k -> new Document());
+        doc.latest++;
+        doc.rerun = false;
+        if (doc.pending != null) {
+            doc.pending.cancel(false);
+        }
+
+        doc.pending = timer.schedule(() -> start(project, uri), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Whether the diagnose running for the document, if any, is for its
+     * latest version. Results of a superseded diagnose should be dropped.
+     */
+    synchronized boolean isLatest(String uri) {
+        var doc = documents.get(uri);
+        return doc == null || doc.running < 0 || doc.running == doc.latest;
+    }
+
+    synchronized void cancel(String uri) {
+        var doc = documents.remove(uri);
+        if (doc != null && doc.pending != null) {
+            doc.pending.cancel(false);
+        }
+    }
+
+    private synchronized void start(Project project, String uri) {
+        var doc = documents.get(uri);
+        if (doc == null) {
+            return;
+        }
+
+        doc.pending = null;
+        if (doc.running >= 0) {
+            LOG.fine(() -> "Diagnose of " + uri + " in progress, coalescing version " + doc.latest);
+            doc.rerun = true;
+            return;
+        }
+
+        doc.running = doc.latest;
+        try {
+            CompletableFuture.runAsync(() -> diagnose.accept(project, uri), Workers.COMPILATION)
+                             .whenComplete((r, e) -> {
+                                 if (e != null && e.getCause() instanceof CancellationException) {
+                                     LOG.fine(() -> "Abandoned a superseded diagnose of " + uri);
+                                 } else if (e != null) {
+                                     LOG.log(Level.SEVERE, "Failed to diagnose " + uri, e);
+                                 }
+
+                                 finished(project, uri, doc);
+                             });
+        } catch (RejectedExecutionException e) {
+            LOG.log(Level.WARNING, "Dropped diagnose of " + uri, e);
+            doc.running = -1;
+        }
+    }
+
+    private synchronized void finished(Project project, String uri, Document doc) {
+        doc.running = -1;
+        if (doc.rerun && documents.get(uri) == doc) {
+            doc.rerun = false;
+            start(project, uri);
+        }
+    }
+}
@@ -19,6 +19,18 @@ public class FindUnused {
     }
 
     public List<? extends Tree> find(TaskEvent taskEvent) {
+        return usages(taskEvent).entrySet()
+                                .stream()
+                                .filter(e -> e.getValue().isEmpty())
+                                .map(Map.Entry::getKey)
+                                .toList();
+    }
+
+    /**
+     * The imports of the unit, each with the identifiers using what it
+     * imports.
+     */
+    public Map<Tree, List<Tree>> usages(TaskEvent taskEvent) {
         var tree =taskEvent.getCompilationUnit();
         Objects.requireNonNull(tree);
 
@@ -29,32 +41,27 @@ public class FindUnused {
         var scanner = new Scanner(tree);
         tree.accept(scanner, Trees.instance(task));
 
-        return scanner.usage
-                      .entrySet()
-                      .stream()
-                      .filter(e -> e.getValue().count == 0)
-                      .map(e -> e.getValue().originNode)
-                      .distinct()
-                      .toList();
+        var usages = new LinkedHashMap<Tree, List<Tree>>();
+        scanner.usage.values().forEach(c -> usages.put(c.originNode, c.uses));
+        return usages;
     }
 
     class Counter {
         Tree originNode;
-        int count;
+        List<Tree> uses = new ArrayList<>();
 
-        Counter(Tree originNode, int count) {
+        Counter(Tree originNode) {
             this.originNode = originNode;
-            this.count = count;
         }
 
-        Counter increment() {
-            count++;
+        Counter use(Tree node) {
+            uses.add(node);
             return this;
         }
 
         @Override
         public String toString() {
-            return "{originNode=" + originNode + ", count=" + count + "}";
+            return "{originNode=" + originNode + ", count=" + uses.size() + "}";
         }
     }
 
@@ -75,7 +82,7 @@ public class FindUnused {
                 return null;
             }
 
-            var counter = new Counter(qid, 0);
+            var counter = new Counter(qid);
 
             if (select.getIdentifier().contentEquals("*")) {
                 var path = treesUtil.getPath(tree, select.getExpression());
@@ -103,7 +110,7 @@ public class FindUnused {
         public Void visitIdentifier(IdentifierTree node, Trees treesUtil) {
             var path = treesUtil.getPath(tree, node);
             var elem = treesUtil.getElement(path);
-            usage.computeIfPresent(elem, (k, v) -> v.increment());
+            usage.computeIfPresent(elem, (k, v) -> v.use(node));
 
             return null;
         }
@@ -0,0 +1,157 @@
+package com.github.andirady.jlangd;
+
+/**
+ * Scores names against what was typed, without allocating, so a matcher
+ * can be run over every type of the class path.
+ * <p>
+ * A name matches if it is the typed text, starts with it, matches its
+ * camel humps ({@code HM} and {@code HaMa} match {@code HashMap}) or
+ * contains it, all ignoring case. The score is higher in that order, and
+ * higher when the case matches too, so sorting by it puts the best first.
+ */
+final class FuzzyMatcher {
+
+    static final int NO_MATCH = -1;
+    static final int SUBSTRING = 1000;
+    static final int CAMEL_HUMPS = 2000;
+    static final int PREFIX = 3000;
+    static final int EXACT = 4000;
+
+    private static final int SAME_CASE = 500;
+
+    private final char[] pattern;
+    private final char[] lower;
+    private final int letters;
+
+    FuzzyMatcher(CharSequence pattern) {
+        this.pattern = new char[pattern.length()];
+        this.lower = new char[pattern.length()];
+        for (var i = 0; i < this.pattern.length; i++) {
+            this.pattern[i] = pattern.charAt(i);
+            this.lower[i] = Character.toLowerCase(this.pattern[i]);
+        }
+        this.letters = letters(pattern);
+    }
+
+    /**
+     * A bit for each of the letters a to z the text has, in either case.
+     * A name lacking a letter of the pattern cannot match.
+     */
+    static int letters(CharSequence text) {
+        var mask = 0;
+        for (var i = 0; i < text.length(); i++) {
+            var c = text.charAt(i) | 0x20;
+            if (c >= 'a' && c <= 'z') {
+                mask |= 1 << (c - 'a');
+            }
+        }
+
+        return mask;
+    }
+
+    int letters() {
+        return letters;
+    }
+
+    /**
+     * The score of the name, or {@link #NO_MATCH}. Every name matches an
+     * empty pattern with the same score.
+     */
+    int score(CharSequence name) {
+        var n = name.length();
+        var m = pattern.length;
+        if (m > n) {
+            return NO_MATCH;
+        }
+
+        var sameCase = true;
+        var i = 0;
+        for (; i < m; i++) {
+            var c = name.charAt(i);
+            if (c != pattern[i]) {
+                if (Character.toLowerCase(c) != lower[i]) {
+                    break;
+                }
+                sameCase = false;
+            }
+        }
+
+        if (i == m) {
+            return (m == n ? EXACT : PREFIX) + (sameCase ? SAME_CASE : 0);
+        }
+
+        var humps = camelHumps(name);
+        if (humps != NO_MATCH) {
+            return humps;
+        }
+
+        return substring(name);
+    }
+
+    /**
+     * Each typed character continues the hump of the previous one, or
+     * starts a later hump. The first hump is the start of the name.
+     */
+    private int camelHumps(CharSequence name) {
+        var n = name.length();
+        if (Character.toLowerCase(name.charAt(0)) != lower[0]) {
+            return NO_MATCH;
+        }
+
+        var sameCase = name.charAt(0) == pattern[0];
+        var j = 1;
+        for (var i = 1; i < pattern.length; i++, j++) {
+            if (j == n) {
+                return NO_MATCH;
+            }
+
+            if (Character.toLowerCase(name.charAt(j)) != lower[i]) {
+                do {
+                    j++;
+                } while (j < n && !(isHumpStart(name, j) && Character.toLowerCase(name.charAt(j)) == lower[i]));
+
+                if (j == n) {
+                    return NO_MATCH;
+                }
+            }
+
+            sameCase &= name.charAt(j) == pattern[i];
+        }
+
+        return CAMEL_HUMPS + (sameCase ? SAME_CASE : 0);
+    }
+
+    private static boolean isHumpStart(CharSequence name, int j) {
+        if (j == 0) {
+            return true;
+        }
+
+        var c = name.charAt(j);
+        var previous = name.charAt(j - 1);
+        return Character.isUpperCase(c)
+            || (Character.isLetterOrDigit(c) && !Character.isLetterOrDigit(previous))
+            || (Character.isDigit(c) && !Character.isDigit(previous));
+    }
+
+    private int substring(CharSequence name) {
+        var last = name.length() - pattern.length;
+        outer:
+        for (var i = 1; i <= last; i++) {
+            var sameCase = true;
+            for (var j = 0; j < pattern.length; j++) {
+                var c = name.charAt(i + j);
+                if (c != pattern[j]) {
+                    if (Character.toLowerCase(c) != lower[j]) {
+                        continue outer;
+                    }
+                    sameCase = false;
+                }
+            }
+
+            // Earlier occurrences first.
+            return SUBSTRING - Math.min(i, SAME_CASE - 1) + (sameCase ? SAME_CASE : 0);
+        }
+
+        return NO_MATCH;
+    }
+}
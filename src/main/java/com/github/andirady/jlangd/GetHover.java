@@ -7,6 +7,8 @@ import java.util.logging.*;
 import javax.lang.model.element.*;
 
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.eclipse.lsp4j.jsonrpc.messages.*;
 
 import com.sun.source.tree.*;
@@ -17,21 +19,30 @@ public class GetHover {
     private static final Logger LOG = Logger.getLogger(GetHover.class.getName());
 
     public CompletableFuture<Hover> hover(HoverParams params) {
-        return CompletableFuture.supplyAsync(() -> {
-            var uri = params.getTextDocument().getUri();
-            var project = Projects.forUri(uri);
-            return doHover(project, uri, params.getPosition());
-        });
+        var uri = params.getTextDocument().getUri();
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE,
+                                               cancel -> doHover(Projects.forUri(uri), uri, params.getPosition(), cancel));
+    }
+
+    CompletableFuture<Hover> hover(Project project, String uri, Position position) {
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE, cancel -> doHover(project, uri, position, cancel));
     }
 
     // TODO move this to another class.
-    private Hover doHover(Project project, String uri, Position position) {
-        var tree = project.compilationUnitFor(uri);
-        var task = project.previousTask().orElseThrow();
+    private Hover doHover(Project project, String uri, Position position, CancelChecker cancel) {
+        try (var result = project.taskForUri(uri, position, cancel)) {
+            return doHover(result, uri, position, cancel);
+        }
+    }
+
+    private Hover doHover(Project.CompilationResult result, String uri, Position position, CancelChecker cancel) {
+        var tree = result.findTreeForUri(uri).orElseThrow();
         var cursor = Util.decodePosition(tree.getLineMap(), position);
-        var trees = Trees.instance(task);
-        var finder = new FindNodeInTree(trees, tree);
+        var trees = result.treesUtil();
+        var finder = new FindNodeInTree(trees, tree, result.nodes(tree));
+        cancel.checkCanceled();
         var node = finder.findAtCursor(cursor);
+        cancel.checkCanceled();
 
         LOG.fine(() -> "node = " + node + " " + node.getKind());
         if (node instanceof IdentifierTree || node instanceof MemberSelectTree) {
@@ -10,6 +10,8 @@ import java.util.logging.*;
 import java.util.stream.*;
 import javax.lang.model.element.*;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.eclipse.lsp4j.jsonrpc.messages.*;
 
 public class GotoDefinition {
@@ -21,39 +23,91 @@ public class GotoDefinition {
     private CompilationUnitTree tree;
     private Trees treesUtil;
     private SourcePositions sourcePositions;
+    private CancelChecker cancel;
 
     public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>>
            go(DefinitionParams params) {
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE, cancel -> locate(params, cancel));
+    }
+
+    private Either<List<? extends Location>, List<? extends LocationLink>>
+            locate(DefinitionParams params, CancelChecker cancel) {
+        this.cancel = cancel;
         this.uri = params.getTextDocument().getUri();
         this.project = Projects.forUri(uri);
-        this.tree = project.compilationUnitFor(uri);
-        var task = project.previousTask().orElseThrow();
-        this.treesUtil = Trees.instance(task);
+        try (var result = project.taskForUri(uri, params.getPosition(), cancel)) {
+            return locate(result, params.getPosition());
+        }
+    }
+
+    private Either<List<? extends Location>, List<? extends LocationLink>>
+            locate(Project.CompilationResult result, Position position) {
+        this.tree = result.findTreeForUri(uri).orElseThrow();
+        this.treesUtil = result.treesUtil();
         this.sourcePositions = treesUtil.getSourcePositions();
 
         var lineMap = tree.getLineMap();
-        var cursor = (long) Util.decodePosition(lineMap, params.getPosition());
-        var scanner = new Scanner();
-        scanner.scan(tree, cursor);
+        var cursor = (long) Util.decodePosition(lineMap, position);
+        var enclosing = result.nodes(tree).enclosing(cursor);
+
+        // The innermost name at the cursor that resolves, the qualifier of a
+        // member before the member.
+        for (var i = enclosing.size() - 1; i >= 0; i--) {
+            cancel.checkCanceled();
+            var node = enclosing.get(i);
+            var kind = node.getKind();
+            if (kind != Tree.Kind.IDENTIFIER && kind != Tree.Kind.MEMBER_SELECT && kind != Tree.Kind.MEMBER_REFERENCE) {
+                continue;
+            }
+
+            var elem = treesUtil.getElement(treesUtil.getPath(tree, node));
+            if (elem == null) {
+                continue;
+            }
+
+            Optional<Location> location = Optional.empty();
+            if (elem instanceof TypeElement type && kind == Tree.Kind.IDENTIFIER) {
+                location = locationForType(type);
+            } else if (elem instanceof ExecutableElement exec && kind != Tree.Kind.MEMBER_REFERENCE) {
+                location = locationForMethod(exec);
+            } else if (elem instanceof VariableElement variable) {
+                location = locationForVariable(variable);
+            }
+
+            return Either.forLeft(location.map(List::of).orElseGet(List::of));
+        }
 
-        return !scanner.futures.isEmpty()
-               ? scanner.futures.get(0)
-               : CompletableFuture.completedFuture(Either.forLeft(List.of()));
+        return Either.forLeft(List.of());
     }
 
     Optional<Location> locationForType(TypeElement elem) {
+        // The workspace index knows the sources that are not open, without
+        // compiling them.
+        var indexed = project.workspaceIndex().findType(elem.getQualifiedName().toString());
+        if (indexed.isPresent()) {
+            return indexed;
+        }
+
         var foreignUri = project.findUriForType(elem).map(Object::toString).orElse(null);
 
         if (foreignUri == null) 
             return Optional.empty();
 
-        var hasSource = project.getSource(foreignUri);
-        var foreignTree = hasSource.isPresent()
-                        ? project.compilationUnitFor(foreignUri)
-                        : project.compilationUnitArbiraryUri(foreignUri);
+        try (var foreign = project.taskForUri(foreignUri, cancel)) {
+            return locationForType(foreignUri, foreign.findTreeForUri(foreignUri).orElseThrow());
+        }
+    }
+
+    private Optional<Location> locationForType(String foreignUri, CompilationUnitTree foreignTree) {
         var location = new ArrayList<Location>(1);
         var foreignScanner = new TreeScanner<Void, Void>() {
 
+            @Override
+            public Void scan(Tree node, Void p) {
+                cancel.checkCanceled();
+                return super.scan(node, p);
+            }
+
             @Override
             public Void visitClass(ClassTree node, Void p) {
                 LOG.fine(() -> "node: " + node);
@@ -74,25 +128,47 @@ public class GotoDefinition {
         if (!(elem.getEnclosingElement() instanceof TypeElement type))
             return Optional.empty();
 
+        var name = elem.getKind() == ElementKind.CONSTRUCTOR ? type.getSimpleName() : elem.getSimpleName();
+        var parameters = elem.getParameters().stream().map(p -> p.asType().toString()).toList();
+        var indexed = project.workspaceIndex()
+                             .findMethod(type.getQualifiedName().toString(), name.toString(), parameters);
+        if (indexed.isPresent()) {
+            return indexed;
+        }
+
         var foreignUri = project.findUriForType(type).map(Object::toString).orElse(null);
 
         if (foreignUri == null)
             return Optional.empty();
 
-        var hasSource = project.getSource(foreignUri);
-        var foreignTree = hasSource.isPresent()
-                        ? project.compilationUnitFor(foreignUri)
-                        : project.compilationUnitArbiraryUri(foreignUri);
+        // The foreign tree may come from another compilation, so its elements
+        // are looked up through the trees of that compilation.
+        try (var foreign = project.taskForUri(foreignUri, cancel)) {
+            return locationForMethod(elem, foreignUri, foreign);
+        }
+    }
+
+    private Optional<Location> locationForMethod(ExecutableElement elem,
+                                                 String foreignUri,
+                                                 Project.CompilationResult foreign) {
+        var foreignTree = foreign.findTreeForUri(foreignUri).orElseThrow();
+        var foreignTrees = foreign.treesUtil();
         var location = new ArrayList<Location>(1);
         var foreignScanner = new TreeScanner<Location, Void>() {
 
+            @Override
+            public Location scan(Tree node, Void p) {
+                cancel.checkCanceled();
+                return super.scan(node, p);
+            }
+
             @Override
             public Location visitMethod(MethodTree n, Void p) {
                 if (n.getKind() != Tree.Kind.METHOD)
                     return null;
 
-                var path = treesUtil.getPath(foreignTree, n);
-                var foreignElem = (ExecutableElement) treesUtil.getElement(path);
+                var path = foreignTrees.getPath(foreignTree, n);
+                var foreignElem = (ExecutableElement) foreignTrees.getElement(path);
                 var same = sameMethod(elem, foreignElem);
                 if (same) {
                     LOG.fine(() -> "Found matching element for " + elem  + " in " + foreignUri);
@@ -144,144 +220,4 @@ public class GotoDefinition {
             throw new UncheckedIOException(e);
         }
     }
-
-
-    class Scanner extends TreeScanner<Element, Long> {
-        List<CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>>>
-        futures = new ArrayList<>();
-
-        @Override
-        public Element reduce(Element r1, Element r2) {
-            return Stream.of(r1, r2).filter(Objects::nonNull).findFirst().orElse(null);
-        }
-
-        @Override
-        public Element visitBlock(BlockTree node, Long p) {
-            if (definedBefore(node, p)) {
-                return null;
-            }
-
-            return super.visitBlock(node, p);
-        }
-
-        @Override
-        public Element visitClass(ClassTree node, Long p) {
-            if (definedBefore(node, p)) {
-                return null;
-            }
-
-            return super.visitClass(node, p);
-        }
-
-        @Override
-        public Element visitIdentifier(IdentifierTree node, Long p) {
-            if (!within(node, p)) {
-                return null;
-            }
-
-            var path = treesUtil.getPath(tree, node);
-            var elem = treesUtil.getElement(path);
-
-            addIfClass(elem);
-            addIfExecutable(elem);
-            addIfVariable(elem);
-
-            return elem;
-        }
-
-        @Override
-        public Element visitLiteral(LiteralTree node, Long p) {
-            // Ignore literals.
-            return null;
-        }
-
-        @Override
-        public Element visitMemberSelect(MemberSelectTree node, Long p) {
-            if (!within(node, p)) {
-                return null;
-            }
-
-            var expr = node.getExpression();
-            var scanned = scan(expr, p);
-            if (scanned != null) {
-                return scanned;
-            }
-
-            var path = treesUtil.getPath(tree, node);
-            var elem = treesUtil.getElement(path);
-
-            addIfExecutable(elem);
-            addIfVariable(elem);
-
-            return elem;
-        }
-
-        @Override
-        public Element visitMemberReference(MemberReferenceTree node, Long p) {
-            if (!within(node, p)) {
-                return null;
-            }
-
-            var expr = node.getQualifierExpression();
-            var scanned = scan(expr, p);
-            if (scanned != null) {
-                return scanned;
-            }
-
-            var path = treesUtil.getPath(tree, node);
-            var elem = treesUtil.getElement(path);
-
-            addIfVariable(elem);
-
-            return elem;
-        }
-
-        void addIfClass(Element elem) {
-            if (elem instanceof TypeElement exec) {
-                futures.add(CompletableFuture.supplyAsync(()
-                            -> Either.forLeft(locationForType(exec).map(List::of).orElseGet(List::of))));
-            }
-        }
-
-        void addIfExecutable(Element elem) {
-            if (elem instanceof ExecutableElement exec) {
-                futures.add(CompletableFuture.supplyAsync(()
-                            -> Either.forLeft(locationForMethod(exec).map(List::of).orElseGet(List::of))));
-            }
-        }
-
-        void addIfVariable(Element elem) {
-            if (elem instanceof VariableElement ve) {
-                futures.add(CompletableFuture.supplyAsync(()
-                            -> Either.forLeft(locationForVariable(ve).map(List::of).orElseGet(List::of))));
-            }
-        }
-
-        @Override
-        public Element visitMethod(MethodTree node, Long p) {
-            if (definedBefore(node, p)) {
-                return null;
-            }
-
-            return super.visitMethod(node, p);
-        }
-
-        private boolean within(Tree node, long cursor) {
-            var start = sourcePositions.getStartPosition(tree, node);
-            var end = sourcePositions.getEndPosition(tree, node);
-
-            var nopos = javax.tools.Diagnostic.NOPOS;
-            if (start == nopos || end == nopos) {
-                return false;
-            }
-
-            return cursor >= start && cursor <= end;
-        }
-
-        private boolean definedBefore(Tree node, long cursor) {
-            var end = sourcePositions.getEndPosition(tree, node);
-            return end < cursor;
-        }
-
-    }
 }
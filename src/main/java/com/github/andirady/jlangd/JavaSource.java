@@ -6,13 +6,12 @@ package com.github.andirady.jlangd;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
 import javax.tools.JavaFileObject;
 import javax.tools.SimpleJavaFileObject;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 
 /**
  *
@@ -20,65 +19,119 @@ import org.eclipse.lsp4j.Range;
  */
 public class JavaSource extends SimpleJavaFileObject {
 
-    private String source;
+    private volatile Rope source;
+    private volatile LineIndex lines;
+    private volatile long version;
     private long lastModified;
-    private List<Integer> lineOffsets;
 
     public JavaSource(URI uri, String source) {
         super(uri, JavaFileObject.Kind.SOURCE);
-        this.source = source;
+        this.source = Rope.of(source);
+        this.lines = LineIndex.of(source);
         this.lastModified = System.currentTimeMillis();
-        compulteLineOfsets();
-    }
-
-    private void compulteLineOfsets() {
-        lineOffsets = new ArrayList<>();
-        var counter = new AtomicInteger();
-        var sepLength = System.lineSeparator().length();
-        source.lines()
-                .mapToInt(s -> s.length() + sepLength)
-                .map(counter::getAndAdd)
-                .forEach(lineOffsets::add);
-        lastModified = System.currentTimeMillis();
     }
 
+    /**
+     * The text as a rope, so javac reads it without it being copied into a
+     * new string on every edit.
+     */
     @Override
     public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
         return source;
     }
 
+    /**
+     * Number of patches applied so far. A compilation result records it to
+     * tell whether it still matches the text.
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * The text and the version it is at.
+     */
+    record Revision(long version, CharSequence text) {}
+
+    /**
+     * The current text and its version, read together.
+     */
+    synchronized Revision revision() {
+        return new Revision(version, source);
+    }
+
     @Override
     public long getLastModified() {
         return lastModified;
     }
 
     public int lineOffset(int line) {
-        return lineOffsets.get(line);
+        return lines.lineStart(line);
+    }
+
+    /**
+     * Line index of the current text, also usable as its {@link
+     * com.sun.source.tree.LineMap}.
+     */
+    LineIndex lines() {
+        return lines;
     }
 
     public void patch(Range range, String text) {
-        var startPos = range.getStart();
-        var endPos = range.getEnd();
-        var start = lineOffset(startPos.getLine()) + startPos.getCharacter();
-        var end = lineOffset(Math.min(endPos.getLine(), lineOffsets.size() - 1)) + endPos.getCharacter();
-        source = new StringBuilder(source).replace(start, end, text).toString();
-        compulteLineOfsets();
+        patch(List.of(new TextDocumentContentChangeEvent(range, text)));
     }
-    
-    public Position lspPosition(int offset) {
-        var line = 0;
-        var lineOffset = 0;
-        for (var i = 0; i < lineOffsets.size(); i++) {
-            var lo = lineOffsets.get(i);
-            if (lo > offset) {
-                break;
+
+    /**
+     * Applies the changes of a didChange notification, in order. A change
+     * without a range replaces the whole text. Runs of changes that each
+     * come before the previous ones, as multi-cursor edits are sent, are
+     * applied with a single update of the line index.
+     */
+    public synchronized void patch(List<TextDocumentContentChangeEvent> changes) {
+        var text = source;
+        var index = lines;
+        var batch = new ArrayList<LineIndex.Edit>();
+        for (var change : changes) {
+            var range = change.getRange();
+            if (range == null) {
+                text = Rope.of(change.getText());
+                index = LineIndex.of(change.getText());
+                batch.clear();
+                continue;
             }
-            
-            lineOffset = lo;
-            line = i;
+
+            var start = offset(index, range.getStart(), text.length());
+            var end = offset(index, range.getEnd(), text.length());
+            // Positions are only valid in the index if they are before every
+            // pending edit, including the line start it may move.
+            if (!batch.isEmpty() && end >= batch.get(batch.size() - 1).start()) {
+                index = index.replace(batch.reversed(), text);
+                batch.clear();
+                start = offset(index, range.getStart(), text.length());
+                end = offset(index, range.getEnd(), text.length());
+            }
+
+            text = text.replace(start, end, change.getText());
+            batch.add(new LineIndex.Edit(start, end, change.getText().length()));
         }
-        
-        return new Position(line, offset - lineOffset);
+
+        if (!batch.isEmpty()) {
+            index = index.replace(batch.reversed(), text);
+        }
+
+        lines = index;
+        source = text;
+        version++;
+        lastModified = System.currentTimeMillis();
+    }
+
+    private static int offset(LineIndex index, Position position, int length) {
+        var line = Math.min(position.getLine(), index.lineCount() - 1);
+        return Math.min(index.lineStart(line) + position.getCharacter(), length);
+    }
+
+    public Position lspPosition(int offset) {
+        return lines.position(offset);
     }
 
     public URI uri() {
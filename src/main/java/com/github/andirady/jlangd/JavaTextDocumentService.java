@@ -11,13 +11,15 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.logging.*;
-import java.util.regex.Pattern;
 import java.util.stream.*;
 import static java.util.stream.Collectors.*;
 import javax.tools.JavaFileObject;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.eclipse.lsp4j.jsonrpc.messages.*;
 import org.eclipse.lsp4j.services.*;
+import com.google.gson.JsonObject;
 import com.sun.source.tree.*;
 import com.sun.source.util.*;
 
@@ -31,6 +33,8 @@ public class JavaTextDocumentService implements TextDocumentService,
 
     private static final Logger LOG = Logger.getLogger(JavaTextDocumentService.class.getName());
 
+    private final DiagnosticsScheduler diagnostics = new DiagnosticsScheduler(this::diagnoseSingle);
+
     LanguageClient client;
 
     @Override
@@ -47,7 +51,7 @@ public class JavaTextDocumentService implements TextDocumentService,
         project.addJavaSource(uri, textDoc.getText());
 
         project.textDocService = this;
-        diagnoseSingle(project, uri);
+        diagnostics.schedule(project, uri, 0);
     }
 
     @Override
@@ -67,13 +71,14 @@ public class JavaTextDocumentService implements TextDocumentService,
                     }
                 });
 
-        params.getContentChanges().forEach(e -> source.patch(e.getRange(), e.getText()));
-        diagnoseSingle(project, uri);
+        source.patch(params.getContentChanges());
+        diagnostics.schedule(project, uri);
     }
 
     @Override
     public void didClose(DidCloseTextDocumentParams params) {
         var uri = params.getTextDocument().getUri();
+        diagnostics.cancel(uri);
         Projects.forUri(uri).removeJavaSource(uri);
     }
 
@@ -82,23 +87,28 @@ public class JavaTextDocumentService implements TextDocumentService,
         var uri = params.getTextDocument().getUri();
         LOG.fine(() -> uri + " saved");
         var project = Projects.forUri(uri);
-        compileAll(project);
+        build(project, uri);
     }
 
     @Override
     public CompletableFuture<List<Either<Command, CodeAction>>> codeAction(CodeActionParams params) {
         LOG.fine(params::toString);
-        return CompletableFuture.supplyAsync(() -> doCodeAction(params))
-                                .thenApply(Stream::toList);
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE, cancel -> {
+            var uri = params.getTextDocument().getUri();
+            try (var result = Projects.forUri(uri).taskForUri(uri, params.getRange().getStart(), cancel)) {
+                return doCodeAction(params, result, cancel).toList();
+            }
+        });
     }
 
-    private Stream<Either<Command, CodeAction>> doCodeAction(CodeActionParams params) {
+    private Stream<Either<Command, CodeAction>> doCodeAction(CodeActionParams params,
+                                                             Project.CompilationResult projectTask,
+                                                             CancelChecker cancel) {
         var uri = params.getTextDocument().getUri();
         var project = Projects.forUri(uri);
 
-        var projectTask = project.taskForUri(uri);
-        var tree = projectTask.findTreeForUri(uri).orElseThrow();
         var range = params.getRange();
+        var tree = projectTask.findTreeForUri(uri).orElseThrow();
         var start = range.getStart();
         var lineMap = tree.getLineMap();
         var trees = projectTask.treesUtil();
@@ -124,45 +134,43 @@ public class JavaTextDocumentService implements TextDocumentService,
                      "compiler.err.doesnt.exist":
                     var dStart = diag.getRange().getStart();
                     var dEnd = diag.getRange().getEnd();
-                    var symbol = content.subSequence(source.lineOffset(dStart.getLine()) + dStart.getCharacter(),
-                                                     source.lineOffset(dEnd.getLine()) + dEnd.getCharacter());
+                    var lines = source.lines();
+                    var symbol = content.subSequence(lines.offset(dStart), lines.offset(dEnd));
                     LOG.fine(() -> "symbol = " + symbol);
-                    var pattern = Pattern.compile("^(.*[.]|)" + symbol + "$");
+                    var qualified = symbol.toString();
+                    var simpleName = qualified.substring(qualified.lastIndexOf('.') + 1);
                     var addImport = new AddImport(tree, trees);
-                    LoadTypes.streamTypeNames(project.classpathString(), s -> pattern.matcher(s).matches())
+                    LoadTypes.catalogue(project.typeIndex(), project.classpathString())
+                             .named(simpleName)
+                             .filter(s -> s.equals(qualified) || s.endsWith("." + qualified))
                              .distinct()
                              .forEach(s -> futures.add(CompletableFuture.supplyAsync(() -> {
                                                var ca = new CodeAction("Import " + s);
                                                var we = new WorkspaceEdit(Map.of(uri, List.of(addImport.addImport(s))));
                                                ca.setEdit(we);
                                                return Either.forRight(ca);
-                                           })));
+                                           }, Workers.DIRECT)));
                     break;
                 default:
                     continue;
             }
         }
 
-        Predicate<Tree> cursorInNode = node -> {
-            var ep = sourcePositions.getEndPosition(tree, node);
-            if (ep < cursor)
-                return false;
-
-            var sp = sourcePositions.getStartPosition(tree, node);
-            return cursor >= sp && cursor <= ep;
-        };
+        var nodes = projectTask.nodes(tree);
+        Predicate<Tree> cursorInNode = node -> nodes.contains(node, cursor);
 
         Predicate<Tree> rangeFilter = node -> {
-            var ep = sourcePositions.getEndPosition(tree, node);
+            var ep = nodes.end(node);
             if (ep < cursor)
                 return false;
 
-            var sp = sourcePositions.getStartPosition(tree, node);
+            var sp = nodes.start(node);
             var nodeLine = lineMap.getLineNumber(sp);
             return nodeLine == line;
         };
 
-        var finder = new TreeScanner<Void, Void>() {
+        // Only the nodes at the cursor and the rest of its line are visited.
+        var finder = new SimpleTreeVisitor<Void, Void>() {
 
             @Override
             public Void visitIdentifier(IdentifierTree node, Void p) {
@@ -206,7 +214,7 @@ public class JavaTextDocumentService implements TextDocumentService,
                         LOG.fine(() -> "Created " + ca);
 
                         return Either.forRight(ca);
-                    }));
+                    }, Workers.DIRECT));
                 }
 
                 return null;
@@ -279,17 +287,25 @@ public class JavaTextDocumentService implements TextDocumentService,
                         } catch (IOException e) {
                             throw new UncheckedIOException(e);
                         }
-                    }));
+                    }, Workers.DIRECT));
                 }
 
-                return super.visitVariable(node, p);
+                return null;
             }
 
         };
-        
-        tree.accept(finder, null);
+
+        var lineEnd = cursor;
+        while (lineEnd < content.length() && content.charAt(lineEnd) != '\n')
+            lineEnd++;
+
+        for (var node : nodes.intersecting(cursor, lineEnd)) {
+            cancel.checkCanceled();
+            node.accept(finder, null);
+        }
 
         return futures.stream()
+                      .peek(f -> cancel.checkCanceled())
                       .map(f -> {
                           try {
                               return f.get();
@@ -308,93 +324,59 @@ public class JavaTextDocumentService implements TextDocumentService,
         
         var t0 = System.currentTimeMillis();
         var service = new SuggestCompletion(project, uri);
-        
-        return CompletableFuture.supplyAsync(() -> service.complete(params.getPosition()))
-                                .thenApply(s -> s.map(this::resolveCompletionItem))
-                                .thenApply(s -> s.map(i -> {
-                                    try {
-                                        var updated = i.get();
-                                        LOG.fine(updated::toString);
-                                        return updated;
-                                    } catch (Exception e) {
-                                        throw new IllegalStateException(e);
-                                    }
-                                }))
-                                .thenApply(Stream::toList)
-                                .handle((list, ex) -> {
-                                    LOG.fine(() -> "Suggestions computed in " + (System.currentTimeMillis() - t0) + " ms");
-                                    if (ex == null)
-                                        return Either.forLeft(list);
-
-                                    LOG.log(Level.SEVERE, "Failed to compute suggestions", ex.getCause());
-                                    return Either.forLeft(List.of());
-                                });
+
+        // A cancelled request stops at the next check, and its future is
+        // already completed with the cancellation for the client.
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE, cancel -> {
+            try {
+                var list = service.complete(params.getPosition(), cancel);
+                LOG.fine(list::toString);
+                return Either.<List<CompletionItem>, CompletionList>forRight(list);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Failed to compute suggestions", e);
+                return Either.<List<CompletionItem>, CompletionList>forRight(new CompletionList(List.of()));
+            } finally {
+                LOG.fine(() -> "Suggestions computed in " + (System.currentTimeMillis() - t0) + " ms");
+            }
+        });
     }
 
     @Override
     public CompletableFuture<CompletionItem> resolveCompletionItem(CompletionItem item) {
-        var kind = item.getKind();
-
-        if (( kind == CompletionItemKind.Interface
-           || kind == CompletionItemKind.Class
-           || kind == CompletionItemKind.Enum)
-           && item.getData() instanceof String uri) {
-            return CompletableFuture.supplyAsync(() -> ensureImported(uri, item));
+        // The data is read back as JSON from the client.
+        if (item.getData() instanceof JsonObject data && data.has("uri")) {
+            var uri = data.get("uri").getAsString();
+            return CompletableFuture.supplyAsync(() -> new SuggestCompletion(Projects.forUri(uri), uri).resolve(item),
+                                                 Workers.INTERACTIVE);
         }
 
         return CompletableFuture.completedFuture(item);
     }
 
-    private CompletionItem ensureImported(String uri, CompletionItem item) {
-        var project = Projects.forUri(uri);
-        var compilationResult = project.taskForUri(uri);
-        var tree = compilationResult.findTreeForUri(uri).orElseThrow();
-        var imports = tree.getImports();
-        if (imports.stream()
-                   .filter(imp -> !imp.isStatic())
-                   .map(imp -> imp.getQualifiedIdentifier().toString())
-                   .filter(imp -> imp.startsWith(item.getDetail() + "."))
-                   .noneMatch(imp -> imp.endsWith(".*") || imp.endsWith(item.getLabel()))) {
-            var pkg = item.getDetail();
-            var edit = new TextEdit();
-            edit.setNewText("import " + pkg + "." + item.getLabel() + ";");
-
-            var trees = compilationResult.treesUtil();
-            var sourcePositions = trees.getSourcePositions();
-
-            long pos;
-            if (imports.isEmpty()) {
-                var pkgTree = tree.getPackage();
-                pos = sourcePositions.getEndPosition(tree, pkgTree);
-            } else {
-                var lastImport = imports.get(imports.size() - 1);
-                pos = sourcePositions.getEndPosition(tree, lastImport);
+    private void diagnoseSingle(Project project, String uri) {
+        var t0 = System.currentTimeMillis();
+        // Abandoned at the next compiler event once a newer change comes in.
+        var result = project.diagnose(uri, () -> {
+            if (!diagnostics.isLatest(uri)) {
+                throw new CancellationException("Superseded diagnose of " + uri);
             }
-
-            var lineMap = tree.getLineMap();
-            var start = Util.encodePosition(lineMap, pos);
-            edit.setRange(new Range(start, start));
-            item.setAdditionalTextEdits(List.of(edit));
+        });
+        var elapsed = System.currentTimeMillis() - t0;
+        if (!diagnostics.isLatest(uri)) {
+            LOG.fine(() -> "Dropped diagnostics of a superseded version of " + uri);
+            return;
         }
 
-        LOG.fine(item::toString);
-        return item;
-    }
-
-    private void diagnoseSingle(Project project, String uri) {
-        CompletableFuture.runAsync(() -> {
-            var t0 = System.currentTimeMillis();
-            var result = project.diagnose(uri);
-            var elapsed = System.currentTimeMillis() - t0;
-            var msg = "Diagnosed " + Path.of(URI.create(uri)) + " in " + elapsed + " ms.";
-            if (result.isEmpty()) {
-                client.logMessage(new MessageParams(MessageType.Info, "OK. " + msg));
-                client.publishDiagnostics(new PublishDiagnosticsParams(uri, List.of()));
-                return;
-            }
+        var msg = "Diagnosed " + Path.of(URI.create(uri)) + " in " + elapsed + " ms.";
+        if (result.isEmpty()) {
+            notifyClient(c -> c.logMessage(new MessageParams(MessageType.Info, "OK. " + msg)));
+            notifyClient(c -> c.publishDiagnostics(new PublishDiagnosticsParams(uri, List.of())));
+            return;
+        }
 
-            client.logMessage(new MessageParams(MessageType.Error, "Failed. " + msg));
-        });
+        notifyClient(c -> c.logMessage(new MessageParams(MessageType.Error, "Failed. " + msg)));
     }
 
     @Override
@@ -406,28 +388,44 @@ public class JavaTextDocumentService implements TextDocumentService,
              .entrySet()
              .stream()
              .map(e -> new PublishDiagnosticsParams(e.getKey(), e.getValue()))
-             .forEach(client::publishDiagnostics);
+             .forEach(this::publishDiagnostics);
     }
 
     void publishDiagnostics(PublishDiagnosticsParams params) {
-        client.publishDiagnostics(params);
+        if (diagnostics.isLatest(params.getUri())) {
+            notifyClient(c -> c.publishDiagnostics(params));
+        }
     }
 
-    private void compileAll(Project project) {
+    /**
+     * Sends a notification from the notification thread, in the order they
+     * were made, so a slow client does not hold up the compiler.
+     */
+    private void notifyClient(Consumer<LanguageClient> notification) {
+        try {
+            Workers.NOTIFICATION.execute(() -> notification.accept(client));
+        } catch (RejectedExecutionException e) {
+            LOG.log(Level.WARNING, "Dropped a notification", e);
+        }
+    }
+
+    private void build(Project project, String uri) {
         CompletableFuture.runAsync(() -> {
             var t0 = System.currentTimeMillis();
-            var result = project.compileAll();
-            var msg = "Compilation took " + (System.currentTimeMillis() - t0) + " ms.";
-            if (result.isEmpty()) {
-                client.logMessage(new MessageParams(MessageType.Info, "OK. " + msg));
-                project.streamSourceUris()
-                       .map(uri -> new PublishDiagnosticsParams(uri, List.of()))
-                       .forEach(client::publishDiagnostics);
+            var result = project.build(uri);
+            var msg = "Compiling " + result.uris().size() + " sources took "
+                      + (System.currentTimeMillis() - t0) + " ms.";
+            if (result.diagnostics().isEmpty()) {
+                notifyClient(c -> c.logMessage(new MessageParams(MessageType.Info, "OK. " + msg)));
+                result.uris()
+                      .stream()
+                      .map(u -> new PublishDiagnosticsParams(u, List.of()))
+                      .forEach(p -> notifyClient(c -> c.publishDiagnostics(p)));
                 return;
             }
 
-            client.logMessage(new MessageParams(MessageType.Error, "Failed. " + msg));
-        });
+            notifyClient(c -> c.logMessage(new MessageParams(MessageType.Error, "Failed. " + msg)));
+        }, Workers.COMPILATION);
     }
 
     private Diagnostic lspDiag(javax.tools.Diagnostic<? extends JavaFileObject> diag) {
@@ -437,7 +435,8 @@ public class JavaTextDocumentService implements TextDocumentService,
 
         var startOffset = (int) diag.getPosition();
         var endOffset = (int) diag.getEndPosition();
-        var range = new Range(source.lspPosition(startOffset), source.lspPosition(endOffset));
+        var lines = source.lines();
+        var range = new Range(Util.encodePosition(lines, startOffset), Util.encodePosition(lines, endOffset));
         var severity = switch (diag.getKind()) {
             case ERROR ->
                 DiagnosticSeverity.Error;
@@ -474,6 +473,7 @@ public class JavaTextDocumentService implements TextDocumentService,
         var project = Projects.forUri(uri);
         var rename = new RenameSymbol(project, uri);
 
-        return CompletableFuture.supplyAsync(() -> rename.rename(params.getPosition(), params.getNewName()));
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE,
+                                               cancel -> rename.rename(params.getPosition(), params.getNewName(), cancel));
     }
 }
@@ -4,8 +4,15 @@
  */
 package com.github.andirady.jlangd;
 
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.WorkspaceSymbol;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.WorkspaceService;
 
 /**
@@ -14,6 +21,8 @@ import org.eclipse.lsp4j.services.WorkspaceService;
  */
 public class JavaWorkspaceService implements WorkspaceService {
 
+    private static final int SYMBOLS = Integer.getInteger("workspace.symbols", 100);
+
     @Override
     public void didChangeConfiguration(DidChangeConfigurationParams params) {
         throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
@@ -23,5 +32,29 @@ public class JavaWorkspaceService implements WorkspaceService {
     public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
         throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
     }
-    
+
+    /**
+     * The symbols of the workspace indexes whose name contains the query,
+     * those starting with it first, at most as many as set with {@code
+     * --workspace.symbols}.
+     */
+    @Override
+    public CompletableFuture<Either<List<? extends SymbolInformation>, List<? extends WorkspaceSymbol>>>
+           symbol(WorkspaceSymbolParams params) {
+        return CompletableFutures.computeAsync(Workers.INTERACTIVE, cancel -> {
+            var query = params.getQuery();
+            var prefix = query.toLowerCase(Locale.ROOT);
+            Comparator<WorkspaceIndex.Symbol> prefixFirst =
+                    Comparator.comparing(s -> !s.name().toLowerCase(Locale.ROOT).startsWith(prefix));
+            var symbols = Projects.all()
+                                  .stream()
+                                  .flatMap(p -> p.workspaceIndex().query(query))
+                                  .peek(s -> cancel.checkCanceled())
+                                  .sorted(prefixFirst.thenComparing(WorkspaceIndex.Symbol::name))
+                                  .limit(SYMBOLS)
+                                  .map(WorkspaceIndex.Symbol::toWorkspaceSymbol)
+                                  .toList();
+            return Either.forRight(symbols);
+        });
+    }
 }
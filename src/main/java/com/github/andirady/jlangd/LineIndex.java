@@ -0,0 +1,175 @@
+package com.github.andirady.jlangd;
+
+import com.sun.source.tree.LineMap;
+import java.util.*;
+import org.eclipse.lsp4j.Position;
+
+/**
+ * Start offsets of the lines of a text, as a primitive table searched in
+ * O(log n). A line ends at {@code \n}, {@code \r\n} or a lone {@code \r}.
+ * Columns are counted in UTF-16 code units, as LSP positions are, and tabs
+ * are not expanded. Immutable; an edit returns a new index.
+ */
+final class LineIndex implements LineMap {
+
+    private final int[] starts;
+    private final int count;
+
+    private LineIndex(int[] starts, int count) {
+        this.starts = starts;
+        this.count = count;
+    }
+
+    static LineIndex of(CharSequence text) {
+        var starts = new int[64];
+        var count = 1;
+        for (var i = 0; i < text.length(); i++) {
+            if (isLineStart(text, i + 1)) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+
+        return new LineIndex(Arrays.copyOf(starts, count), count);
+    }
+
+    /**
+     * Whether a line starts at {@code pos}, which is after a line break.
+     */
+    private static boolean isLineStart(CharSequence text, int pos) {
+        if (pos <= 0 || pos > text.length()) {
+            return false;
+        }
+
+        var c = text.charAt(pos - 1);
+        return c == '\n' || (c == '\r' && (pos == text.length() || text.charAt(pos) != '\n'));
+    }
+
+    /**
+     * Replaces {@code [start, end)} of the old text by {@code length}
+     * characters.
+     */
+    record Edit(int start, int end, int length) {}
+
+    /**
+     * The index after {@code [start, end)} of the old text was replaced by
+     * {@code length} characters, giving {@code text}. Only the lines around
+     * the edit are scanned.
+     */
+    LineIndex replace(int start, int end, int length, CharSequence text) {
+        return replace(List.of(new Edit(start, end, length)), text);
+    }
+
+    /**
+     * The index after applying the edits, which are in ascending order and
+     * do not overlap, all in the coordinates of the old text. The table is
+     * copied once, whatever the number of edits.
+     */
+    LineIndex replace(List<Edit> edits, CharSequence text) {
+        var merged = new ArrayList<Edit>(edits.size());
+        var bound = count;
+        for (var e : edits) {
+            // A line start at p depends on the characters at p - 1 and p, so
+            // the starts in [start, end + 1] are recomputed from the new text,
+            // and edits that close together are rescanned as one.
+            var previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && e.start() <= previous.end() + 1) {
+                merged.set(merged.size() - 1,
+                           new Edit(previous.start(), e.end(),
+                                    previous.length() + (e.start() - previous.end()) + e.length()));
+            } else {
+                merged.add(e);
+            }
+            bound += e.length() + 2;
+        }
+
+        var out = new int[bound];
+        var n = 0;
+        var i = 0;
+        var delta = 0;
+        for (var e : merged) {
+            while (i < count && (i == 0 || starts[i] < e.start())) {
+                out[n++] = starts[i++] + delta;
+            }
+            while (i < count && starts[i] <= e.end() + 1) {
+                i++;
+            }
+
+            var start = e.start() + delta;
+            for (var p = Math.max(start, 1); p <= start + e.length() + 1; p++) {
+                if (isLineStart(text, p)) {
+                    out[n++] = p;
+                }
+            }
+            delta += e.length() - (e.end() - e.start());
+        }
+        while (i < count) {
+            out[n++] = starts[i++] + delta;
+        }
+
+        return new LineIndex(Arrays.copyOf(out, n), n);
+    }
+
+    int lineCount() {
+        return count;
+    }
+
+    /**
+     * Zero based index of the line containing the offset.
+     */
+    int lineAt(long pos) {
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            var mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Offset of the start of the zero based line.
+     */
+    int lineStart(int line) {
+        if (line < 0 || line >= count) {
+            throw new IndexOutOfBoundsException(line);
+        }
+
+        return starts[line];
+    }
+
+    Position position(long pos) {
+        var line = lineAt(pos);
+        return new Position(line, (int) (pos - starts[line]));
+    }
+
+    int offset(Position position) {
+        return lineStart(position.getLine()) + position.getCharacter();
+    }
+
+    @Override
+    public long getStartPosition(long line) {
+        return lineStart((int) line - 1);
+    }
+
+    @Override
+    public long getPosition(long line, long column) {
+        return getStartPosition(line) + column - 1;
+    }
+
+    @Override
+    public long getLineNumber(long pos) {
+        return lineAt(pos) + 1;
+    }
+
+    @Override
+    public long getColumnNumber(long pos) {
+        return pos - starts[lineAt(pos)] + 1;
+    }
+}
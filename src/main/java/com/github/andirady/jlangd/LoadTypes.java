@@ -10,13 +10,19 @@ import java.net.URI;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import com.github.andirady.jlangd.TypeCatalogue.Segment;
 
 /**
  *
@@ -24,83 +30,210 @@ import java.util.stream.Stream;
  */
 public final class LoadTypes {
     
+    private static final Logger LOG = Logger.getLogger(LoadTypes.class.getName());
     private static final Pattern ILLEGAL_NAME = Pattern.compile("\\$\\d+\\.class$");
     private static final Pattern MEMBER_SEP = Pattern.compile("/|\\$");
     private static final Pattern PATH_SEP = Pattern.compile(":");
     private static final String CLASS_EXT = ".class";
     private static final int CLASS_EXT_LENGTH = CLASS_EXT.length();
     
+    // How long a segment is trusted before its jar is checked for changes again.
+    private static final long REVALIDATE_INTERVAL_MS = 2000;
+    private static final Path RUNTIME_IMAGE = Path.of(System.getProperty("java.home"), "lib", "modules");
+    
     private static final LoadTypes INSTANCE = new LoadTypes();
     
-    public static Stream<String> streamTypeNames(String classpath, Predicate<String> filter) {
-        return Stream.concat(
-                INSTANCE.streamCachedTypeNames(classpath, filter),
-                INSTANCE.jrtTypeNames(filter));
+    public static Stream<String> streamTypeNames(TypeNameIndex index, String classpath, Predicate<String> filter) {
+        return INSTANCE.typeNames(index, classpath, filter);
+    }
+    
+    public static TypeCatalogue catalogue(TypeNameIndex index, String classpath) {
+        return INSTANCE.load(index, classpath);
     }
     
-    private List<String> jrtTypeNames;
-    private final Map<String, List<String>> cache;
+    /**
+     * The catalogue last served for a classpath, and when its jars were
+     * last checked.
+     */
+    private record Loaded(TypeCatalogue catalogue, List<Segment> segments, long validatedAt) {}
+    
+    private record CatalogueKey(TypeNameIndex index, String classpath) {}
+    
+    private final Map<Path, CompletableFuture<Segment>> segments;
+    private final Map<CatalogueKey, Loaded> catalogues;
+    private final AtomicInteger scanCount;
+    
+    LoadTypes() {
+        segments = new ConcurrentHashMap<>();
+        catalogues = new ConcurrentHashMap<>();
+        scanCount = new AtomicInteger();
+    }
+    
+    Stream<String> typeNames(TypeNameIndex index, String classpath, Predicate<String> filter) {
+        var st = load(index, classpath).stream();
+        
+        if (filter != null)
+            st = st.filter(filter);
+        
+        return st;
+    }
     
-    private LoadTypes() {
-        cache = new HashMap<>();
+    /**
+     * Returns the catalogue of the classpath. It is served as is until
+     * {@link #REVALIDATE_INTERVAL_MS} passed, then its jars are looked at
+     * again and a new catalogue is made only if one of them changed.
+     */
+    TypeCatalogue load(TypeNameIndex index, String classpath) {
+        var key = new CatalogueKey(index, classpath);
+        var cached = catalogues.get(key);
+        var now = System.currentTimeMillis();
+        if (cached != null && now - cached.validatedAt() < REVALIDATE_INTERVAL_MS) {
+            return cached.catalogue();
+        }
+        
+        var loaded = segments(index, classpath);
+        if (cached != null && cached.segments().equals(loaded)) {
+            catalogues.put(key, new Loaded(cached.catalogue(), loaded, now));
+            return cached.catalogue();
+        }
+        
+        // Segments are shared between projects, make sure this project's
+        // index knows about them too.
+        loaded.stream()
+              .filter(s -> s.key() != null && !index.contains(s.key()))
+              .forEach(s -> index.put(s.key(), s.names().toList()));
+        index.save();
+        
+        var catalogue = new TypeCatalogue(loaded);
+        catalogues.put(key, new Loaded(catalogue, loaded, now));
+        return catalogue;
+    }
+    
+    private List<Segment> segments(TypeNameIndex index, String classpath) {
+        var jars = PATH_SEP.splitAsStream(classpath)
+                .filter(s -> s.endsWith(".jar"))
+                .map(Path::of)
+                .filter(Files::isRegularFile);
+        return Stream.concat(jars, Stream.of(RUNTIME_IMAGE))
+                .map(p -> segment(index, p))
+                .toList();
+    }
+    
+    /**
+     * Returns the segment for the given jar, scanning it only when it is not
+     * loaded yet or has changed. Concurrent callers asking for the same jar
+     * wait for the scan already in flight instead of starting their own.
+     */
+    Segment segment(TypeNameIndex index, Path path) {
+        while (true) {
+            var future = segments.get(path);
+            if (future == null) {
+                var created = new CompletableFuture<Segment>();
+                if (segments.putIfAbsent(path, created) != null) {
+                    continue;
+                }
+                
+                try {
+                    var segment = load(index, path);
+                    created.complete(segment);
+                    logFootprint();
+                    return segment;
+                } catch (RuntimeException e) {
+                    segments.remove(path, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            
+            if (!future.isDone()) {
+                return future.join();
+            }
+            
+            var segment = future.join();
+            if (isFresh(segment, path)) {
+                return segment;
+            }
+            
+            LOG.fine(() -> path + " changed, rescanning");
+            segments.remove(path, future);
+        }
     }
     
-    private Stream<String> streamCachedTypeNames(String classpath, Predicate<String> filter) {
-        if (cache.containsKey(classpath)) {
-            return cache.get(classpath).stream().filter(filter);
+    private boolean isFresh(Segment segment, Path path) {
+        var now = System.currentTimeMillis();
+        if (segment.key() == null || now - segment.validatedAt() < REVALIDATE_INTERVAL_MS) {
+            return true;
         }
         
-        if (classpath.isEmpty()) {
-            return Stream.empty();
+        if (!Files.isRegularFile(path) || !segment.key().equals(TypeNameIndex.Key.of(path))) {
+            return false;
         }
         
-        var paths = PATH_SEP.splitAsStream(classpath).map(Path::of);
-        return paths.filter(p -> p.getFileName().toString().endsWith(".jar"))
-                .flatMap(p -> {
-                    try (
-                        var fs = FileSystems.newFileSystem(p);
-                        var stream = Files.walk(fs.getPath(""));
-                    ) {
-                        var st = stream.filter(Files::isRegularFile)
-                                       .filter(this::ignore)
-                                       .map(this::pathToTypeName);
-                        
-                        
-                        var list = st.toList();
-                        cache.put(classpath, list);
-                        
-                        st = list.stream();
-                        
-                        if (filter != null)
-                            st = st.filter(filter);
-                        
-                        return st;
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                });
+        segment.validated(now);
+        return true;
     }
     
-    private Stream<String> jrtTypeNames(Predicate<String> filter) {
-        if (jrtTypeNames != null) {
-            return jrtTypeNames.stream().filter(filter);
+    private void logFootprint() {
+        LOG.fine(() -> {
+            var loaded = segments.values().stream()
+                                 .filter(f -> f.isDone() && !f.isCompletedExceptionally())
+                                 .map(CompletableFuture::join)
+                                 .toList();
+            var types = loaded.stream().mapToLong(Segment::size).sum();
+            var packed = loaded.stream().mapToLong(Segment::footprint).sum();
+            var index = loaded.stream().mapToLong(Segment::indexFootprint).sum();
+            var strings = loaded.stream().mapToLong(Segment::stringFootprint).sum();
+            return String.format("Type catalogue holds %d types in %d KB + %d KB index (%d KB as strings)",
+                                 types, packed / 1024, index / 1024, strings / 1024);
+        });
+    }
+    
+    int scanCount() {
+        return scanCount.get();
+    }
+    
+    private Segment load(TypeNameIndex index, Path path) {
+        var key = Files.isRegularFile(path) ? TypeNameIndex.Key.of(path) : null;
+        var indexed = key == null ? Optional.<List<String>>empty() : index.get(key);
+        if (indexed.isPresent()) {
+            return new Segment(key, indexed.get());
+        }
+        
+        var t0 = System.currentTimeMillis();
+        scanCount.incrementAndGet();
+        var names = path.equals(RUNTIME_IMAGE) ? scanRuntimeImage() : scanJar(path);
+        LOG.fine(() -> "Scanned " + names.size() + " types in " + path + " in "
+                     + (System.currentTimeMillis() - t0) + " ms");
+        if (key != null) {
+            index.put(key, names);
         }
         
+        return new Segment(key, names);
+    }
+    
+    private List<String> scanJar(Path jar) {
+        try (
+            var fs = FileSystems.newFileSystem(jar);
+            var stream = Files.walk(fs.getPath(""));
+        ) {
+            return stream.filter(Files::isRegularFile)
+                         .filter(this::ignore)
+                         .map(this::pathToTypeName)
+                         .toList();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to read " + jar, e);
+            return List.of();
+        }
+    }
+    
+    private List<String> scanRuntimeImage() {
         var jrtRoot = Path.of(URI.create("jrt:/"));
         try (var stream = Files.walk(jrtRoot)) {
-            var st = stream.parallel().filter(Files::isRegularFile)
+            return stream.parallel().filter(Files::isRegularFile)
                     .map(p -> p.subpath(2, p.getNameCount()))
                     .filter(this::ignore)
-                    .map(this::pathToTypeName);
-            
-            jrtTypeNames = st.toList();
-            
-            st = jrtTypeNames.stream();
-            
-            if (filter != null)
-                st = st.filter(filter);
-                
-            return st;
+                    .map(this::pathToTypeName)
+                    .toList();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
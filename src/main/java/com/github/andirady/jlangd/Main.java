@@ -73,12 +73,18 @@ public class Main implements LanguageServer, LanguageClientAware {
         try {
             var textDocService = new JavaTextDocumentService();
             var server = new Main(textDocService);
-            var launcher = new LSPLauncher.Builder<LanguageClient>()
-                                          .setLocalService(server)
-                                          .setRemoteInterface(LanguageClient.class)
-                                          .setInput(System.in)
-                                          .setOutput(System.out)
-                                          .create();
+            var builder = new LSPLauncher.Builder<LanguageClient>()
+                                         .setLocalService(server)
+                                         .setRemoteInterface(LanguageClient.class)
+                                         .setInput(System.in)
+                                         .setOutput(System.out);
+            var requests = Workers.newRequestExecutor();
+            if (requests != null) {
+                LOG.info("Handling requests on virtual threads");
+                builder.setExecutorService(requests);
+            }
+
+            var launcher = builder.create();
             server.connect(launcher.getRemoteProxy());
             
             launcher.startListening();
@@ -112,7 +118,24 @@ public class Main implements LanguageServer, LanguageClientAware {
             }
 
             folders.parallelStream().map(WorkspaceFolder::getUri).map(Projects::forUri)
-                   .forEach(p -> p.setDiagnosticsConsumer(textDocumentService));
+                   .forEach(p -> {
+                       p.setDiagnosticsConsumer(textDocumentService);
+                       try {
+                           Workers.INDEXING.execute(() -> LoadTypes.catalogue(p.typeIndex(), p.classpathString()));
+                       } catch (RejectedExecutionException e) {
+                           // Loaded by the first completion instead.
+                           LOG.log(Level.WARNING, "Dropped loading the types of " + p.path(), e);
+                       }
+                       try {
+                           p.workspaceIndex().start().exceptionally(e -> {
+                               LOG.log(Level.WARNING, "Failed to index " + p.path(), e);
+                               return null;
+                           });
+                       } catch (RuntimeException e) {
+                           // Workspace symbols are then missing, the rest still works.
+                           LOG.log(Level.WARNING, "Failed to index " + p.path(), e);
+                       }
+                   });
 
             var serverCaps = new ServerCapabilities();
             var syncOptions = new TextDocumentSyncOptions();
@@ -120,22 +143,24 @@ public class Main implements LanguageServer, LanguageClientAware {
             syncOptions.setSave(true);
             serverCaps.setTextDocumentSync(syncOptions);
             serverCaps.setCompletionProvider(new CompletionOptions(true, List.of(".", ":")));
+            serverCaps.setWorkspaceSymbolProvider(true);
             var resp = new InitializeResult(serverCaps, new ServerInfo(SERVER_NAME, SERVER_VERSION));
             LOG.info(() -> "Initialized in " + (System.currentTimeMillis() - t0) + " ms.");
 
             return resp;
-        });
+        }, Workers.INTERACTIVE);
     }
 
     @Override
     public CompletableFuture<Object> shutdown() {
+        // Let running work finish before the projects it uses are closed.
+        Workers.shutdown();
         Projects.closeAll();
-        return CompletableFuture.supplyAsync(() -> null);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public void exit() {
-        ForkJoinPool.commonPool().shutdownNow();
         System.exit(0);
     }
 
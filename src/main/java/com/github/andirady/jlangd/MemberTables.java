@@ -0,0 +1,109 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import javax.lang.model.element.*;
+import javax.lang.model.util.*;
+
+/**
+ * The members of each type asked for, as {@link Elements#getAllMembers}
+ * lists them, sorted once into what completion needs. Kept with a
+ * compilation result, its elements belong to the result's task, so every
+ * completion served from the same snapshot looks them up.
+ */
+final class MemberTables {
+
+    /**
+     * The members of a type by kind. Instance and static members are the
+     * ones declared in source or class files, without constructors.
+     * Which of them a class can access is remembered per class.
+     */
+    static final class Table {
+
+        private final List<? extends Element> all;
+        private final List<Element> instance = new ArrayList<>();
+        private final List<Element> statics = new ArrayList<>();
+        private final List<TypeElement> types;
+        private final List<VariableElement> enumConstants = new ArrayList<>();
+        private final Map<TypeElement, List<Element>> accessibleInstance = new ConcurrentHashMap<>();
+        private final Map<TypeElement, List<Element>> accessibleStatics = new ConcurrentHashMap<>();
+
+        private Table(Elements elements, TypeElement type) {
+            all = elements.getAllMembers(type);
+            types = ElementFilter.typesIn(all);
+            for (var e : all) {
+                var kind = e.getKind();
+                if (kind == ElementKind.ENUM_CONSTANT) {
+                    enumConstants.add((VariableElement) e);
+                }
+
+                if (kind == ElementKind.CONSTRUCTOR || !elements.getOrigin(e).isDeclared()) {
+                    continue;
+                }
+
+                if (e.getModifiers().contains(Modifier.STATIC)) {
+                    statics.add(e);
+                } else if (!(kind.isClass() || kind.isInterface()) && kind != ElementKind.STATIC_INIT) {
+                    instance.add(e);
+                }
+            }
+        }
+
+        List<? extends Element> all() {
+            return all;
+        }
+
+        List<TypeElement> types() {
+            return types;
+        }
+
+        List<VariableElement> enumConstants() {
+            return enumConstants;
+        }
+
+        /**
+         * The instance members the class can access, as the predicate says
+         * the first time.
+         */
+        List<Element> instanceMembers(TypeElement site, Predicate<Element> accessible) {
+            return accessible(accessibleInstance, instance, site, accessible);
+        }
+
+        /**
+         * The static members, including nested types, the class can access.
+         */
+        List<Element> staticMembers(TypeElement site, Predicate<Element> accessible) {
+            return accessible(accessibleStatics, statics, site, accessible);
+        }
+
+        private static List<Element> accessible(Map<TypeElement, List<Element>> bySite,
+                                                List<Element> members,
+                                                TypeElement site,
+                                                Predicate<Element> accessible) {
+            if (site == null) {
+                return members.stream().filter(accessible).toList();
+            }
+
+            return bySite.computeIfAbsent(site, s -> members.stream().filter(accessible).toList());
+        }
+    }
+
+    private final Elements elements;
+    private final Map<TypeElement, Table> tables = new ConcurrentHashMap<>();
+
+    MemberTables(Elements elements) {
+        this.elements = elements;
+    }
+
+    Table of(TypeElement type) {
+        var table = tables.get(type);
+        if (table != null) {
+            return table;
+        }
+
+        // Listing the members completes their symbols, the caller holds the
+        // result of the task.
+        return tables.computeIfAbsent(type, t -> new Table(elements, t));
+    }
+}
@@ -0,0 +1,221 @@
+package com.github.andirady.jlangd;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+import java.util.*;
+
+/**
+ * The spans of the nodes of a compilation unit, indexed once so finding
+ * the nodes at a position does not walk the tree. Spans include their end,
+ * as a cursor right after a name is still on it. Nodes without a position
+ * are left out, their children are kept.
+ * <p>
+ * The nodes are sorted by start, the outer one first on the same start,
+ * and a tree of the greatest end over each range of them answers which
+ * of the nodes starting before a position reach it.
+ */
+final class NodeIndex {
+
+    private static final long NOPOS = javax.tools.Diagnostic.NOPOS;
+
+    private final Tree[] nodes;
+    private final Map<Tree, Integer> index;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] parents; // index of the closest indexed ancestor, -1 for none
+    private final long[] maxEnds; // segment tree, the greatest end in each range of nodes
+    private final int size;
+
+    private NodeIndex(List<Tree> found, List<long[]> spans, List<Integer> foundParents) {
+        size = found.size();
+        var order = new Integer[size];
+        Arrays.setAll(order, i -> i);
+        // Preorder breaks ties, an ancestor comes before its descendants.
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> spans.get(i)[0])
+                                     .thenComparing(i -> -spans.get(i)[1])
+                                     .thenComparing(i -> i));
+
+        var position = new int[size];
+        nodes = new Tree[size];
+        starts = new long[size];
+        ends = new long[size];
+        index = new IdentityHashMap<>(size);
+        for (var p = 0; p < size; p++) {
+            var i = order[p];
+            position[i] = p;
+            nodes[p] = found.get(i);
+            index.put(nodes[p], p);
+            starts[p] = spans.get(i)[0];
+            ends[p] = spans.get(i)[1];
+        }
+
+        parents = new int[size];
+        for (var p = 0; p < size; p++) {
+            var parent = foundParents.get(order[p]);
+            parents[p] = parent < 0 ? -1 : position[parent];
+        }
+
+        maxEnds = new long[Math.max(1, 4 * size)];
+        if (size > 0) {
+            build(1, 0, size - 1);
+        }
+    }
+
+    /**
+     * Indexes the nodes of the tree with a position.
+     */
+    static NodeIndex of(CompilationUnitTree tree, SourcePositions sourcePositions) {
+        var found = new ArrayList<Tree>();
+        var spans = new ArrayList<long[]>();
+        var parents = new ArrayList<Integer>();
+        new TreeScanner<Void, Integer>() {
+
+            @Override
+            public Void scan(Tree node, Integer parent) {
+                if (node == null) {
+                    return null;
+                }
+
+                var start = sourcePositions.getStartPosition(tree, node);
+                var end = sourcePositions.getEndPosition(tree, node);
+                if (start < 0 || end < start) {
+                    return super.scan(node, parent);
+                }
+
+                found.add(node);
+                spans.add(new long[] { start, end });
+                parents.add(parent);
+                return super.scan(node, found.size() - 1);
+            }
+        }.scan(tree, -1);
+
+        return new NodeIndex(found, spans, parents);
+    }
+
+    private long build(int n, int lo, int hi) {
+        if (lo == hi) {
+            return maxEnds[n] = ends[lo];
+        }
+
+        var mid = (lo + hi) >>> 1;
+        return maxEnds[n] = Math.max(build(2 * n, lo, mid), build(2 * n + 1, mid + 1, hi));
+    }
+
+    /**
+     * The number of nodes starting at or before the offset.
+     */
+    private int startingBefore(long offset) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * The innermost node whose span has the offset, of two siblings the one
+     * starting later, or null.
+     */
+    Tree innermost(long offset) {
+        var i = innermostIndex(offset);
+        return i < 0 ? null : nodes[i];
+    }
+
+    private int innermostIndex(long offset) {
+        var count = startingBefore(offset);
+        return count == 0 ? -1 : last(1, 0, size - 1, count - 1, offset);
+    }
+
+    /**
+     * The last node in {@code [lo, hi]} up to {@code limit} ending at or
+     * after the offset.
+     */
+    private int last(int n, int lo, int hi, int limit, long offset) {
+        if (lo > limit || maxEnds[n] < offset) {
+            return -1;
+        }
+
+        if (lo == hi) {
+            return lo;
+        }
+
+        var mid = (lo + hi) >>> 1;
+        var right = last(2 * n + 1, mid + 1, hi, limit, offset);
+        return right >= 0 ? right : last(2 * n, lo, mid, limit, offset);
+    }
+
+    /**
+     * The innermost node at the offset and the ancestors with the offset in
+     * their spans, the outermost first.
+     */
+    List<Tree> enclosing(long offset) {
+        var chain = new ArrayList<Tree>();
+        for (var i = innermostIndex(offset); i >= 0; i = parents[i]) {
+            if (starts[i] <= offset && offset <= ends[i]) {
+                chain.add(nodes[i]);
+            }
+        }
+
+        return chain.reversed();
+    }
+
+    /**
+     * The nodes whose spans overlap {@code [from, to]}, in the order they
+     * start.
+     */
+    List<Tree> intersecting(long from, long to) {
+        var out = new ArrayList<Tree>();
+        var count = startingBefore(to);
+        if (count > 0) {
+            collect(1, 0, size - 1, count - 1, from, out);
+        }
+
+        return out;
+    }
+
+    private void collect(int n, int lo, int hi, int limit, long from, List<Tree> out) {
+        if (lo > limit || maxEnds[n] < from) {
+            return;
+        }
+
+        if (lo == hi) {
+            out.add(nodes[lo]);
+            return;
+        }
+
+        var mid = (lo + hi) >>> 1;
+        collect(2 * n, lo, mid, limit, from, out);
+        collect(2 * n + 1, mid + 1, hi, limit, from, out);
+    }
+
+    /**
+     * Where the node starts, as {@link SourcePositions#getStartPosition},
+     * or {@link javax.tools.Diagnostic#NOPOS} if it is not indexed.
+     */
+    long start(Tree node) {
+        var i = index.get(node);
+        return i == null ? NOPOS : starts[i];
+    }
+
+    /**
+     * Where the node ends, or {@link javax.tools.Diagnostic#NOPOS}.
+     */
+    long end(Tree node) {
+        var i = index.get(node);
+        return i == null ? NOPOS : ends[i];
+    }
+
+    /**
+     * Whether the node is indexed and the offset in its span.
+     */
+    boolean contains(Tree node, long offset) {
+        var i = index.get(node);
+        return i != null && starts[i] <= offset && offset <= ends[i];
+    }
+}
@@ -7,31 +7,98 @@ import com.sun.source.util.*;
 import java.io.*;
 import java.net.URI;
 import java.nio.charset.Charset;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import java.util.stream.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.lang.model.element.*;
 import javax.lang.model.util.*;
 import javax.tools.*;
 import javax.tools.Diagnostic;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 
 public class Project {
 
     record Type(String simpleName, String canonicalName) {}
 
+    record Span(long start, long end) {
+
+        boolean contains(long pos) {
+            return start <= pos && pos < end;
+        }
+    }
+
+    /**
+     * The trees of a compilation. An incremental compilation blanks the
+     * method bodies other than the edited one, those are listed in
+     * {@code pruned}. The member tables and the node index of each tree are
+     * shared by the features reading the result. A result taken from
+     * {@link #taskForUri(String)} is used by the taking thread alone and
+     * closed on it once read, so the next reader can use its compiler and it
+     * can eventually be reused.
+     */
     record CompilationResult(
-            JavacTask task,
-            Iterable<? extends CompilationUnitTree> trees) {
-        
+            CompilerSession.Lease lease,
+            Iterable<? extends CompilationUnitTree> trees,
+            Map<String, CharSequence> texts,
+            List<Span> pruned,
+            MemberTables members,
+            Map<CompilationUnitTree, NodeIndex> nodeIndexes) implements AutoCloseable {
+
+        CompilationResult(CompilerSession.Lease lease,
+                          Iterable<? extends CompilationUnitTree> trees,
+                          Map<String, CharSequence> texts) {
+            this(lease, trees, texts, List.of());
+        }
+
+        CompilationResult(CompilerSession.Lease lease,
+                          Iterable<? extends CompilationUnitTree> trees,
+                          Map<String, CharSequence> texts,
+                          List<Span> pruned) {
+            this(lease, trees, texts, pruned, new MemberTables(lease.task().getElements()), new ConcurrentHashMap<>());
+        }
+
+        JavacTask task() {
+            return lease.task();
+        }
+
+        @Override
+        public void close() {
+            lease.unlock();
+            lease.release();
+        }
+
+        /**
+         * The text of the tree's open source at the compiled version. The
+         * tree of an incremental compilation is parsed from a pruned copy,
+         * and an open source may have been patched since.
+         */
+        CharSequence text(CompilationUnitTree tree) throws IOException {
+            var text = texts.get(tree.getSourceFile().toUri().toString());
+            return text != null ? text : tree.getSourceFile().getCharContent(true);
+        }
+
+        boolean isPruned(long pos) {
+            return pruned.stream().anyMatch(s -> s.contains(pos));
+        }
+
         public Trees treesUtil() {
-            return Trees.instance(task);
+            return Trees.instance(task());
+        }
+
+        /**
+         * The spans of the nodes of the tree, indexed the first time.
+         */
+        NodeIndex nodes(CompilationUnitTree tree) {
+            return nodeIndexes.computeIfAbsent(tree, t -> NodeIndex.of(t, treesUtil().getSourcePositions()));
         }
         
         public Stream<? extends CompilationUnitTree> streamTrees() {
@@ -54,20 +121,168 @@ public class Project {
         }
     }
 
+    /**
+     * What a diagnose produced, published once the compiler is done with it.
+     * Readers take the snapshot of a source without locking, it is never
+     * modified afterwards. {@code sourceVersions} are the versions of the
+     * open sources that were compiled. The task of a snapshot must not be
+     * used before its unused symbol pass completed, see {@link
+     * #awaitUnusedPass(Snapshot)}.
+     */
+    record Snapshot(
+            long version,
+            CompilationResult result,
+            Trees treesUtil,
+            Map<String, Long> sourceVersions,
+            List<Diagnostic<? extends JavaFileObject>> diagnostics,
+            CompletableFuture<Void> unusedPass) {
+
+        JavacTask task() {
+            return result.task();
+        }
+    }
+
+    /**
+     * The sources a compile on save compiled, and their diagnostics.
+     */
+    record Build(List<String> uris, List<Diagnostic<? extends JavaFileObject>> diagnostics) {}
+
     private static final Logger LOG = Logger.getLogger(Project.class.getName());
     private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+    private static final String TYPES_CACHE = ".types.cache";
+    private static final int SNAPSHOTS = Integer.getInteger("snapshots.size", 8);
+    private static final CancelChecker NEVER = () -> {};
+    // How long a reader waits for another one to be done with a compilation result.
+    private static final long TASK_WAIT_MS = Long.getLong("task.wait.ms", 2000);
+
+    // The source directories. A location of its own, javac would otherwise
+    // read the sources of the types it does not find on the class path.
+    private static final JavaFileManager.Location SOURCES = new JavaFileManager.Location() {
+
+        @Override
+        public String getName() {
+            return "SOURCES";
+        }
+
+        @Override
+        public boolean isOutputLocation() {
+            return false;
+        }
+    };
+
+    /**
+     * What the last complete diagnose of a source saw: its text, the spans
+     * of its method bodies, and its diagnostics.
+     */
+    private record Baseline(String text, List<Span> bodies, List<Diagnostic<? extends JavaFileObject>> diagnostics) {}
+
+    /**
+     * The imports the unused symbol pass found in a text, and where each is
+     * used. An incremental diagnose keeps the uses outside of the edited
+     * body and adds the ones in it.
+     */
+    private record Unused(String text, List<Imported> imports) {
+
+        List<Span> unused() {
+            return imports.stream().filter(i -> i.uses().isEmpty()).map(Imported::span).toList();
+        }
+    }
+
+    private record Imported(Span span, List<Long> uses) {}
+
+    /**
+     * A diagnostic reported before an edit, moved to where it is after it.
+     */
+    private record ShiftedDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic,
+                                     JavaFileObject source,
+                                     long delta,
+                                     LineMap lineMap) implements Diagnostic<JavaFileObject> {
+
+        static Diagnostic<? extends JavaFileObject> of(Diagnostic<? extends JavaFileObject> d,
+                                                       JavaFileObject source,
+                                                       long delta,
+                                                       LineMap lineMap) {
+            if (d instanceof ShiftedDiagnostic s) {
+                return new ShiftedDiagnostic(s.diagnostic(), source, s.delta() + delta, lineMap);
+            }
+
+            return new ShiftedDiagnostic(d, source, delta, lineMap);
+        }
+
+        private long shift(long pos) {
+            return pos == NOPOS ? NOPOS : pos + delta;
+        }
+
+        @Override
+        public Kind getKind() {
+            return diagnostic.getKind();
+        }
+
+        @Override
+        public JavaFileObject getSource() {
+            return source;
+        }
+
+        @Override
+        public long getPosition() {
+            return shift(diagnostic.getPosition());
+        }
+
+        @Override
+        public long getStartPosition() {
+            return shift(diagnostic.getStartPosition());
+        }
+
+        @Override
+        public long getEndPosition() {
+            return shift(diagnostic.getEndPosition());
+        }
+
+        @Override
+        public long getLineNumber() {
+            return getPosition() == NOPOS ? NOPOS : lineMap.getLineNumber(getPosition());
+        }
+
+        @Override
+        public long getColumnNumber() {
+            return getPosition() == NOPOS ? NOPOS : lineMap.getColumnNumber(getPosition());
+        }
+
+        @Override
+        public String getCode() {
+            return diagnostic.getCode();
+        }
+
+        @Override
+        public String getMessage(Locale locale) {
+            return diagnostic.getMessage(locale);
+        }
+    }
 
     private final Path path;
     private final Map<String, JavaSource> sources;
+    private final CachingFileManager fileCache;
     private final JavaFileManager fileMgr;
+    private final CompilerSession session;
     private final String classpath;
     private final String modulepath;
     private final Path srcDir;
     private final Path outputDir;
+    private final TypeNameIndex typeIndex;
+    private final DependencyGraph dependencies = new DependencyGraph();
+    private final WorkspaceIndex workspaceIndex;
+    private final Map<String, CompletionSession> completions = new ConcurrentHashMap<>();
     
-    private CompilationResult previousCompilationResult;
+    // Only the compiler is serialized, the baselines are guarded by it too.
+    // Not a monitor, a virtual thread waiting for it must not pin a carrier.
+    private final ReentrantLock compileLock = new ReentrantLock();
+    private final AtomicLong versions = new AtomicLong();
     private Consumer<List<Diagnostic<? extends JavaFileObject>>> diagnosticConsumer;
-    private Map<String, CompilationUnitTree> compilationUnits;
+    private final Map<String, Snapshot> snapshots;
+    private final Map<String, Baseline> baselines;
+    private final Map<String, Unused> unused = new ConcurrentHashMap<>();
+    // The class files of one task are written after the other.
+    private CompletableFuture<Void> generation = CompletableFuture.completedFuture(null);
 
     // Lazy hack
     JavaTextDocumentService textDocService;
@@ -79,8 +294,16 @@ public class Project {
             Path srcDir,
             Path outputDir) {
         this.path = path;
-        sources = new HashMap<>();
-        fileMgr = COMPILER.getStandardFileManager(null, null, charset);
+        sources = new ConcurrentHashMap<>();
+        var standardFileMgr = COMPILER.getStandardFileManager(null, null, charset);
+        try {
+            standardFileMgr.setLocationFromPaths(SOURCES, List.of(srcDir));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fileCache = new CachingFileManager(standardFileMgr);
+        fileMgr = new SynchronizedFileManager(fileCache);
+        session = new CompilerSession(fileMgr);
         classpath.forEach(p -> LOG.info(() -> p + " added to classpath"));
         this.classpath = Stream.concat(classpath.stream(), Stream.ofNullable(outputDir))
                                .map(Path::toString)
@@ -88,7 +311,24 @@ public class Project {
         this.modulepath = modulePath.stream().map(Path::toString).collect(joining(System.getProperty("path.separator")));
         this.srcDir = srcDir;
         this.outputDir = outputDir;
-        this.compilationUnits = new HashMap<>();
+        // The latest snapshot of each source. A snapshot holds on to a whole
+        // compiler, so only the recently used ones are kept, as many as set
+        // with --snapshots.size.
+        this.snapshots = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+                if (size() > SNAPSHOTS) {
+                    remove(eldest.getKey());
+                    retire(this, eldest.getValue());
+                }
+
+                return false;
+            }
+        });
+        this.baselines = new HashMap<>();
+        this.typeIndex = TypeNameIndex.open(Files.isDirectory(path) ? path.resolve(TYPES_CACHE) : null);
+        this.workspaceIndex = new WorkspaceIndex(this, charset);
     }
 
     public Path path() {
@@ -120,66 +360,148 @@ public class Project {
     }
     
     public List<Diagnostic<? extends JavaFileObject>> compileAll() {
-        var targets = streamSourceUris()
+        // The class files of the project may have been rebuilt since the
+        // compiler contexts read them.
+        session.invalidate();
+        return fullCompile(sourcesInSrcDir());
+    }
+
+    /**
+     * Compiles the saved source and the open sources depending on it, as
+     * recorded by the earlier builds, along with the open sources no build
+     * compiled yet. Sources that do not reference each other are compiled
+     * in parallel.
+     */
+    Build build(String uri) {
+        session.invalidate();
+        var affected = new HashSet<>(dependencies.dependents(uri));
+        affected.add(uri);
+        var targets = sourcesInSrcDir().stream()
+                                       .filter(u -> affected.contains(u) || !dependencies.contains(u))
+                                       .toList();
+        return new Build(targets, fullCompile(targets));
+    }
+
+    private List<String> sourcesInSrcDir() {
+        return streamSourceUris()
                 .map(URI::create)
                 .map(Path::of)
                 .filter(p -> p.startsWith(srcDir))
                 .map(Path::toUri)
                 .map(URI::toString)
                 .toList();
-        return fullCompile(targets);
     }
 
+    /**
+     * Diagnoses a single source. When the source only changed inside one
+     * method body since its last complete diagnose, only that method is
+     * attributed again and the diagnostics of the other members are reused.
+     */
     public List<Diagnostic<? extends JavaFileObject>> diagnose(String uri) {
-        return diagnose(List.of(uri));
+        return diagnose(uri, NEVER);
+    }
+
+    /**
+     * Like {@link #diagnose(String)}, but abandons the compilation with a
+     * {@link CancellationException} once the checker says so, for example
+     * because the source changed again. Nothing is published then.
+     */
+    List<Diagnostic<? extends JavaFileObject>> diagnose(String uri, CancelChecker cancel) {
+        return recompile(uri, cancel).diagnostics();
+    }
+
+    private Snapshot recompile(String uri, CancelChecker cancel) {
+        return compiling(() -> {
+            var cached = snapshots.get(uri);
+            if (cached != null && sources.containsKey(uri) && isFresh(cached, uri)) {
+                LOG.fine(() -> "Snapshot " + cached.version() + " of " + uri + " is fresh");
+                diagnosticConsumer.accept(cached.diagnostics());
+                return cached;
+            }
+
+            var source = sources.get(uri);
+            var baseline = baselines.get(uri);
+            if (source != null && baseline != null) {
+                var result = diagnoseIncrementally(source, baseline, cancel);
+                if (result.isPresent()) {
+                    return result.get();
+                }
+            }
+
+            return diagnoseSources(sourcesFor(List.of(uri)), cancel);
+        });
     }
     
     List<Diagnostic<? extends JavaFileObject>> diagnose(List<String> uris) {
-        return diagnoseSources(sources.entrySet().stream()
+        return diagnoseSources(sourcesFor(uris), NEVER).diagnostics();
+    }
+
+    private List<JavaSource> sourcesFor(List<String> uris) {
+        return sources.entrySet().stream()
                 .filter(e -> uris.contains(e.getKey()))
                 .map(Map.Entry::getValue)
-                .toList());
+                .toList();
+    }
+
+    private Snapshot diagnoseSources(List<? extends JavaFileObject> targets, CancelChecker cancel) {
+        return compiling(() -> compile(targets, cancel));
     }
 
-    private synchronized List<Diagnostic<? extends JavaFileObject>> diagnoseSources(List<? extends JavaFileObject> targets) {
+    /**
+     * Runs the work holding the compile lock, on the compilation pool when
+     * called from a virtual thread.
+     */
+    private <T> T compiling(Supplier<T> work) {
+        return Workers.compute(() -> {
+            compileLock.lock();
+            try {
+                return work.get();
+            } finally {
+                compileLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Parses and analyzes the targets, then publishes the result. Must be
+     * called with the compile lock held.
+     */
+    private Snapshot compile(List<? extends JavaFileObject> targets, CancelChecker cancel) {
         var t0 = System.currentTimeMillis();
+        var revisions = revisionsOf(targets);
+        var sourceVersions = versionsOf(revisions);
         var diags = new DiagnosticCollector<JavaFileObject>();
-        var task = (JavacTask) COMPILER.getTask(null, fileMgr, diags, options(), null, targets);
+        var lease = open(diags, targets);
+        lease.lock();
+        var task = lease.task();
         var findUnused = new FindUnused(task);
+        var passes = new ArrayList<CompletableFuture<Void>>();
         
+        task.addTaskListener(cancelling(cancel));
         task.addTaskListener(new TaskListener() {
 
             @Override
             public void finished(TaskEvent event) {
                 if (event.getKind() == TaskEvent.Kind.ANALYZE) {
-                    CompletableFuture.runAsync(() -> {
-                        var t0 = System.currentTimeMillis();
-                        var trees = Trees.instance(task);
-                        var sourcePositions = trees.getSourcePositions();
-                        var tree = event.getCompilationUnit();
-                        var lineMap = tree.getLineMap();
-                        var diags = findUnused.find(event)
-                                              .stream()
-                                              .map(n -> {
-                                                  var sp = sourcePositions.getStartPosition(tree, n);
-                                                  var ep = sourcePositions.getEndPosition(tree, n);
-                                                  var start = Util.encodePosition(lineMap, sp);
-                                                  var end = Util.encodePosition(lineMap, ep);
-                                                  var range = new Range(start, end);
-                                                  var d = new org.eclipse.lsp4j.Diagnostic(range, "never used");
-                                                  d.setSeverity(DiagnosticSeverity.Hint);
-                                                  d.setTags(List.of(DiagnosticTag.Unnecessary));
-                                                  return d;
-                                              })
-                                              .toList();
-
-                        if (!diags.isEmpty()) {
-                            var params = new PublishDiagnosticsParams(tree.getSourceFile().toUri().toString(), diags);
-                            textDocService.publishDiagnostics(params);
+                    var revision = revisions.get(event.getSourceFile().toUri().toString());
+                    Runnable pass = () -> {
+                        // Runs once the compilation let go of the task.
+                        lease.lock();
+                        try {
+                            findUnused(task, findUnused, event, revision);
+                        } finally {
+                            lease.unlock();
                         }
+                    };
 
-                        LOG.fine(() -> "Find unused took " + (System.currentTimeMillis() - t0) + " ms");
-                    });
+                    try {
+                        passes.add(CompletableFuture.runAsync(pass, Workers.COMPILATION));
+                    } catch (RejectedExecutionException e) {
+                        // Thrown out of analyze() it would fail the diagnose,
+                        // the pass is run here instead.
+                        LOG.fine(() -> "Running the unused symbol pass inline, " + e.getMessage());
+                        pass.run();
+                    }
                 }
             }
         });
@@ -187,61 +509,574 @@ public class Project {
             var trees = task.parse();
             diagnosticConsumer.accept(diags.getDiagnostics());
 
-            if (diags.getDiagnostics().isEmpty()) {
+            var analyzed = diags.getDiagnostics().isEmpty();
+            if (analyzed) {
                 task.analyze();
                 diagnosticConsumer.accept(diags.getDiagnostics());
             }
 
             LOG.fine(() -> "Diagnosed in " + (System.currentTimeMillis() - t0) + " ms");
-            previousCompilationResult = new CompilationResult(task, trees);
-            trees.forEach(t -> compilationUnits.put(t.getSourceFile().toUri().toString(), t));
 
-            return diags.getDiagnostics();
+            // Only an analyzed source can serve as the baseline of an
+            // incremental diagnose. If it was patched meanwhile, the text
+            // that was parsed is not known.
+            for (var tree : trees) {
+                var uri = tree.getSourceFile().toUri().toString();
+                var source = sources.get(uri);
+                var revision = revisions.get(uri);
+                if (analyzed && source != null && targets.contains(source)
+                        && revision != null && revision.version() == source.version()) {
+                    var own = diags.getDiagnostics()
+                                   .stream()
+                                   .filter(d -> d.getSource() == source)
+                                   .toList();
+                    baselines.put(uri, new Baseline(revision.text().toString(),
+                                                    memberBodies(tree, Trees.instance(task).getSourcePositions()),
+                                                    own));
+                } else {
+                    baselines.remove(uri);
+                }
+            }
+
+            var texts = revisions.entrySet()
+                                 .stream()
+                                 .collect(toMap(Map.Entry::getKey, e -> e.getValue().text()));
+            return publish(new CompilationResult(lease, trees, texts), sourceVersions, diags.getDiagnostics(), passes);
         } catch (IOException e) {
             LOG.fine(e::getMessage);
+            lease.discard();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            lease.discard();
+            throw cancelled(e);
+        } finally {
+            lease.unlock();
+            // The unused symbol pass still reads the task.
+            CompletableFuture.allOf(passes.toArray(CompletableFuture[]::new))
+                             .whenComplete((r, e) -> lease.release());
+        }
+    }
+
+    /**
+     * Publishes the imports of the analyzed unit that are never used, and
+     * keeps their uses for the incremental diagnoses of the text, if it is
+     * an open source. Nothing is published once the source was patched, the
+     * next diagnose publishes for the new text.
+     */
+    private void findUnused(JavacTask task, FindUnused findUnused, TaskEvent event, JavaSource.Revision revision) {
+        var t0 = System.currentTimeMillis();
+        var tree = event.getCompilationUnit();
+        var uri = tree.getSourceFile().toUri().toString();
+        var found = new Unused(revision == null ? null : revision.text().toString(), imports(task, findUnused, event));
+        var source = sources.get(uri);
+        if (revision != null && source != null) {
+            unused.put(uri, found);
+            if (source.version() != revision.version()) {
+                LOG.fine(() -> uri + " was patched, not publishing the unused symbols");
+                return;
+            }
+        }
+        publishUnused(uri, found.unused(), tree.getLineMap());
+
+        LOG.fine(() -> "Find unused took " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    private static List<Imported> imports(JavacTask task, FindUnused findUnused, TaskEvent event) {
+        var tree = event.getCompilationUnit();
+        var positions = Trees.instance(task).getSourcePositions();
+        return findUnused.usages(event)
+                         .entrySet()
+                         .stream()
+                         .map(e -> new Imported(new Span(positions.getStartPosition(tree, e.getKey()),
+                                                         positions.getEndPosition(tree, e.getKey())),
+                                                e.getValue()
+                                                 .stream()
+                                                 .map(u -> positions.getStartPosition(tree, u))
+                                                 .toList()))
+                         .sorted(Comparator.comparingLong(i -> i.span().start()))
+                         .toList();
+    }
+
+    /**
+     * Publishes the unused symbols of a source as hints, if it has any.
+     */
+    private void publishUnused(String uri, List<Span> spans, LineMap lineMap) {
+        if (spans.isEmpty()) {
+            return;
+        }
+
+        var diags = spans.stream()
+                         .map(s -> {
+                             var start = Util.encodePosition(lineMap, s.start());
+                             var end = Util.encodePosition(lineMap, s.end());
+                             var d = new org.eclipse.lsp4j.Diagnostic(new Range(start, end), "never used");
+                             d.setSeverity(DiagnosticSeverity.Hint);
+                             d.setTags(List.of(DiagnosticTag.Unnecessary));
+                             return d;
+                         })
+                         .toList();
+        textDocService.publishDiagnostics(new PublishDiagnosticsParams(uri, diags));
+    }
+
+    /**
+     * Opens a task over the targets. The compiler contexts are not reused
+     * once an archive of the class path changed, they read the old one.
+     */
+    private CompilerSession.Lease open(DiagnosticListener<? super JavaFileObject> diags,
+                                       List<? extends JavaFileObject> targets) {
+        // The standard file manager is closed under the lock of the file
+        // manager when an archive changed.
+        synchronized (fileMgr) {
+            if (fileCache.refresh()) {
+                session.invalidate();
+            }
+        }
+
+        return session.open(diags, options(), targets);
+    }
+
+    /**
+     * A listener that checks for cancellation whenever javac starts parsing,
+     * entering or analyzing a class, so a cancelled task stops between them.
+     */
+    private static TaskListener cancelling(CancelChecker cancel) {
+        return new TaskListener() {
+
+            @Override
+            public void started(TaskEvent event) {
+                cancel.checkCanceled();
+            }
+        };
+    }
+
+    /**
+     * The cancellation that javac wrapped when it was thrown by a listener,
+     * or the exception itself.
+     */
+    private static RuntimeException cancelled(RuntimeException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CancellationException c) {
+                return c;
+            }
+        }
+
+        return e;
+    }
+
+    /**
+     * Attributes only the method body that contains the changes since the
+     * baseline, by compiling a copy of the source with every other method
+     * body blanked out. Empty if the changes are not within a single method
+     * body, or if they change the structure of the source.
+     */
+    private Optional<Snapshot> diagnoseIncrementally(JavaSource source, Baseline baseline, CancelChecker cancel) {
+        var t0 = System.currentTimeMillis();
+        var uri = source.toUri().toString();
+        var revision = source.revision();
+        var sourceVersions = Map.of(uri, revision.version());
+        var text = revision.text().toString();
+
+        var old = baseline.text();
+        var max = Math.min(old.length(), text.length());
+        var prefix = 0;
+        while (prefix < max && old.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+
+        var suffix = 0;
+        while (suffix < max - prefix
+               && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        // The braces of the edited body must be outside of the change.
+        var changeStart = prefix;
+        var changeEnd = old.length() - suffix;
+        var edited = baseline.bodies()
+                             .stream()
+                             .filter(b -> b.start() < changeStart && changeEnd < b.end())
+                             .findFirst();
+        if (edited.isEmpty()) {
+            return Optional.empty();
+        }
+
+        var delta = text.length() - old.length();
+        var body = edited.get();
+        var newBody = new Span(body.start(), body.end() + delta);
+        var expected = new ArrayList<Span>();
+        var pruned = new ArrayList<Span>();
+        var content = new StringBuilder(text);
+        for (var b : baseline.bodies()) {
+            if (b == body) {
+                expected.add(newBody);
+                continue;
+            }
+
+            var span = b.start() < body.start() ? b : new Span(b.start() + delta, b.end() + delta);
+            expected.add(span);
+            pruned.add(span);
+            // Keep the line breaks, so positions and lines stay the same.
+            for (var i = (int) span.start() + 1; i < span.end() - 1; i++) {
+                var c = content.charAt(i);
+                if (c != '\n' && c != '\r') {
+                    content.setCharAt(i, ' ');
+                }
+            }
+        }
+
+        var diags = new DiagnosticCollector<JavaFileObject>();
+        var prunedSource = new JavaSource(source.uri(), content.toString());
+        var lease = open(diags, List.of(prunedSource));
+        lease.lock();
+        var task = lease.task();
+        var analyzed = new AtomicReference<TaskEvent>();
+        task.addTaskListener(cancelling(cancel));
+        task.addTaskListener(new TaskListener() {
+
+            @Override
+            public void finished(TaskEvent event) {
+                if (event.getKind() == TaskEvent.Kind.ANALYZE) {
+                    analyzed.set(event);
+                }
+            }
+        });
+        try {
+            var trees = task.parse();
+            var tree = trees.iterator().next();
+            var positions = Trees.instance(task).getSourcePositions();
+            if (!diags.getDiagnostics().isEmpty() || !memberBodies(tree, positions).equals(expected)) {
+                LOG.fine(() -> "Structure of " + uri + " changed, diagnosing fully");
+                return Optional.empty();
+            }
+
+            task.analyze();
+
+            var lineMap = tree.getLineMap();
+            var result = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+            for (var d : baseline.diagnostics()) {
+                if (d.getPosition() < body.start()) {
+                    result.add(ShiftedDiagnostic.of(d, source, 0, lineMap));
+                } else if (d.getPosition() >= body.end()) {
+                    result.add(ShiftedDiagnostic.of(d, source, delta, lineMap));
+                }
+            }
+            diags.getDiagnostics()
+                 .stream()
+                 .filter(d -> d.getSource() == prunedSource && newBody.contains(d.getPosition()))
+                 .forEach(result::add);
+            result.sort(Comparator.comparingLong(Diagnostic::getPosition));
+
+            baselines.put(uri, new Baseline(text, expected, result));
+            diagnosticConsumer.accept(result);
+
+            // The publish above replaced the unused imports. The uses in the
+            // other bodies are as the baseline found them, those in the
+            // edited body are found again.
+            var hints = unused.get(uri);
+            if (hints != null && hints.text().equals(old) && analyzed.get() != null) {
+                var found = new HashMap<Span, List<Long>>();
+                imports(task, new FindUnused(task), analyzed.get()).forEach(i -> found.put(i.span(), i.uses()));
+                var imports = new ArrayList<Imported>();
+                for (var i : hints.imports()) {
+                    var uses = new ArrayList<Long>();
+                    for (var u : i.uses()) {
+                        if (u < body.start()) {
+                            uses.add(u);
+                        } else if (u >= body.end()) {
+                            uses.add(u + delta);
+                        }
+                    }
+                    found.getOrDefault(i.span(), List.of()).stream().filter(newBody::contains).forEach(uses::add);
+                    imports.add(new Imported(i.span(), uses));
+                }
+                var now = new Unused(text, imports);
+                unused.put(uri, now);
+                publishUnused(uri, now.unused(), lineMap);
+            }
+
+            LOG.fine(() -> "Diagnosed " + uri + " incrementally in " + (System.currentTimeMillis() - t0) + " ms");
+            var compiled = new CompilationResult(lease, trees, Map.of(uri, revision.text()), pruned);
+            return Optional.of(publish(compiled, sourceVersions, result, List.of()));
+        } catch (IOException e) {
+            lease.discard();
             throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            lease.discard();
+            throw cancelled(e);
+        } finally {
+            lease.unlock();
+            lease.release();
         }
     }
 
-    Optional<JavacTask> previousTask() {
-        return Optional.ofNullable(previousCompilationResult).map(CompilationResult::task);
+    /**
+     * Spans of the bodies of the methods declared by the classes of the
+     * tree, excluding constructors and the members of local or anonymous
+     * classes.
+     */
+    private static List<Span> memberBodies(CompilationUnitTree tree, SourcePositions positions) {
+        var bodies = new ArrayList<Span>();
+        new TreeScanner<Void, Void>() {
+
+            @Override
+            public Void visitMethod(MethodTree node, Void p) {
+                var body = node.getBody();
+                if (body != null && !node.getName().contentEquals("<init>")) {
+                    bodies.add(new Span(positions.getStartPosition(tree, body),
+                                        positions.getEndPosition(tree, body)));
+                }
+
+                return null;
+            }
+
+            @Override
+            public Void visitVariable(VariableTree node, Void p) {
+                return null;
+            }
+
+            @Override
+            public Void visitBlock(BlockTree node, Void p) {
+                return null;
+            }
+        }.scan(tree, null);
+
+        return bodies;
+    }
+
+    /**
+     * Texts and versions of the open sources among the targets, taken before
+     * they are parsed so a concurrent patch makes the result stale rather
+     * than fresh.
+     */
+    private static Map<String, JavaSource.Revision> revisionsOf(List<? extends JavaFileObject> targets) {
+        return targets.stream()
+                      .filter(JavaSource.class::isInstance)
+                      .map(JavaSource.class::cast)
+                      .collect(toMap(s -> s.toUri().toString(), JavaSource::revision, (a, b) -> b));
+    }
+
+    private static Map<String, Long> versionsOf(Map<String, JavaSource.Revision> revisions) {
+        return revisions.entrySet()
+                        .stream()
+                        .collect(toMap(Map.Entry::getKey, e -> e.getValue().version()));
     }
 
-    synchronized List<Diagnostic<? extends JavaFileObject>> fullCompile(List<String> uris) {
+    /**
+     * Makes the compilation result the latest snapshot of each of its
+     * sources. Called with the compile lock held, so versions are published
+     * in order.
+     */
+    private Snapshot publish(CompilationResult result,
+                             Map<String, Long> sourceVersions,
+                             List<Diagnostic<? extends JavaFileObject>> diagnostics,
+                             List<CompletableFuture<Void>> passes) {
+        var published = new Snapshot(versions.incrementAndGet(),
+                                     result,
+                                     Trees.instance(result.task()),
+                                     sourceVersions,
+                                     List.copyOf(diagnostics),
+                                     CompletableFuture.allOf(passes.toArray(CompletableFuture[]::new)));
+        synchronized (snapshots) {
+            // Held until no source has it as its latest snapshot.
+            result.lease().retain();
+            result.streamTrees().forEach(t -> retire(snapshots,
+                                                     snapshots.put(t.getSourceFile().toUri().toString(), published)));
+            retire(snapshots, published);
+        }
+        LOG.fine(() -> "Published snapshot " + published.version());
+        return published;
+    }
+
+    /**
+     * Releases the result of a snapshot that is no longer the latest of any
+     * source. Called holding the lock of the snapshots.
+     */
+    private static void retire(Map<String, Snapshot> snapshots, Snapshot snapshot) {
+        if (snapshot != null && !snapshots.containsValue(snapshot)) {
+            snapshot.result().lease().release();
+        }
+    }
+
+    /**
+     * The latest snapshot of the source, if still kept, without waiting for
+     * a running compilation.
+     */
+    Optional<Snapshot> snapshot(String uri) {
+        return Optional.ofNullable(snapshots.get(uri));
+    }
+
+    /**
+     * Whether the snapshot compiled the current text of the source. A source
+     * that is not open is read from the disk, and taken as unchanged.
+     */
+    private boolean isFresh(Snapshot snapshot, String uri) {
+        var source = sources.get(uri);
+        return source == null || Objects.equals(snapshot.sourceVersions().get(uri), source.version());
+    }
+
+    /**
+     * Waits for the unused symbol pass running over the task of the snapshot
+     * in the background, a javac task must not be used by two threads at once.
+     */
+    private static void awaitUnusedPass(Snapshot snapshot) {
+        snapshot.unusedPass().exceptionally(e -> {
+            LOG.log(Level.FINE, "Find unused failed", e);
+            return null;
+        }).join();
+    }
+
+    List<Diagnostic<? extends JavaFileObject>> fullCompile(List<String> uris) {
         var targets = uris.stream()
-                          .map(sources::get)
-                          .filter(Objects::nonNull)
+                          .filter(sources::containsKey)
                           .toList();
         if (targets.isEmpty()) {
             return List.of();
         }
 
+        var groups = dependencies.groups(targets)
+                                 .stream()
+                                 .map(g -> g.stream().map(sources::get).toList())
+                                 .toList();
+        LOG.fine(() -> "Compiling " + targets.size() + " sources in " + groups.size() + " groups");
+        var diags = compiling(() -> {
+            if (groups.size() == 1) {
+                return compileGroup(groups.get(0));
+            }
+
+            // The lock is held until every group is done.
+            var compiled = groups.stream()
+                                 .map(g -> CompletableFuture.supplyAsync(() -> compileGroup(g), Workers.BUILD))
+                                 .toList();
+            try {
+                CompletableFuture.allOf(compiled.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException re) {
+                    throw re;
+                }
+
+                throw e;
+            }
+
+            return compiled.stream()
+                           .flatMap(f -> f.join().stream())
+                           .toList();
+        });
+
+        diagnosticConsumer.accept(diags);
+
+        return diags;
+    }
+
+    /**
+     * Compiles the sources on a compiler of their own, and records their
+     * dependencies once analyzed.
+     */
+    private List<Diagnostic<? extends JavaFileObject>> compileGroup(List<JavaSource> targets) {
         var diags = new DiagnosticCollector<JavaFileObject>();
-        var task = (JavacTask) COMPILER.getTask(null, fileMgr, diags, options(), null, targets);
+        var lease = open(diags, targets);
+        var task = lease.task();
         try {
-            task.parse();
+            var trees = task.parse();
             if (diags.getDiagnostics().isEmpty()) {
                 task.analyze();
+                var treesUtil = Trees.instance(task);
+                trees.forEach(t -> dependencies.record(t, treesUtil));
 
                 if (diags.getDiagnostics().isEmpty() && options().contains("-d")) {
-                    //task.generate();
-
-                    //fileMgr.flush();
+                    generateLater(lease);
                 }
             }
         } catch (IOException e) {
+            lease.discard();
             throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            lease.discard();
+            throw e;
+        } finally {
+            lease.release();
         }
 
-        diagnosticConsumer.accept(diags.getDiagnostics());
-
         return diags.getDiagnostics();
     }
     
+    /**
+     * Writes the class files of the analyzed task to the output directory
+     * in the background, so the diagnostics are published without waiting
+     * for it. The compiler contexts are not reused once a class file
+     * changed, they may have read the old one.
+     */
+    private synchronized void generateLater(CompilerSession.Lease lease) {
+        lease.retain();
+        generation = generation.thenRunAsync(() -> {
+            var t0 = System.currentTimeMillis();
+            var written = fileCache.classesWritten();
+            lease.lock();
+            try {
+                lease.task().generate();
+                fileMgr.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lease.unlock();
+            }
+
+            var changed = fileCache.classesWritten() - written;
+            if (changed > 0) {
+                session.invalidate();
+            }
+
+            LOG.fine(() -> "Wrote " + changed + " class files in " + (System.currentTimeMillis() - t0) + " ms");
+        }, Workers.COMPILATION).handle((r, e) -> {
+            if (e != null) {
+                LOG.log(Level.WARNING, "Failed to generate class files", e);
+                lease.discard();
+            }
+
+            lease.release();
+            return null;
+        });
+    }
+
+    /**
+     * Completes once the class files of the builds so far are written.
+     */
+    synchronized CompletableFuture<Void> generated() {
+        return generation;
+    }
+
     String classpathString() {
         return classpath;
     }
 
+    TypeNameIndex typeIndex() {
+        return typeIndex;
+    }
+
+    WorkspaceIndex workspaceIndex() {
+        return workspaceIndex;
+    }
+
+    /**
+     * The suggestions of the last completion in the source, or null.
+     */
+    CompletionSession completionSession(String uri) {
+        return completions.get(uri);
+    }
+
+    /**
+     * Keeps the suggestions of a completion in the source, or forgets them
+     * if null.
+     */
+    void completionSession(String uri, CompletionSession session) {
+        if (session == null) {
+            completions.remove(uri);
+        } else {
+            completions.put(uri, session);
+        }
+    }
+
+    // No annotation processing, a reused compiler context cannot run the
+    // processors again.
     private List<String> options() {
         if (outputDir != null) {
             return List.of(
@@ -250,6 +1085,7 @@ public class Project {
                 "-d", outputDir.toString(),
                 "-nowarn",
                 "-parameters",
+                "-proc:none",
                 "-XDrawDiagnostics"
             );
         }
@@ -259,6 +1095,7 @@ public class Project {
             "--module-path", modulepath,
             "-nowarn",
             "-parameters",
+            "-proc:none",
             "-XDrawDiagnostics"
         );
     }
@@ -269,51 +1106,133 @@ public class Project {
 
     void removeJavaSource(String uri) {
         sources.remove(uri);
+        completions.remove(uri);
+        unused.remove(uri);
+        synchronized (snapshots) {
+            retire(snapshots, snapshots.remove(uri));
+        }
     }
 
-    synchronized CompilationResult taskForUri(String uri) {
-        if (previousCompilationResult == null || !previousCompilationResult.hasSourceForUri(uri)) {
-            diagnose(List.of(uri));
+    /**
+     * A complete compilation result of the current text of the source. The
+     * result of the last diagnose is reused if it is still fresh. A source
+     * that is not open is read from the disk. The caller closes the result.
+     */
+    CompilationResult taskForUri(String uri) {
+        return taskForUri(uri, NEVER);
+    }
+
+    /**
+     * Like {@link #taskForUri(String)}, abandoning a compilation it has to
+     * make once the checker says so.
+     */
+    CompilationResult taskForUri(String uri, CancelChecker cancel) {
+        var current = snapshots.get(uri);
+        var compile = current == null || !isFresh(current, uri) || !current.result().pruned().isEmpty();
+        while (true) {
+            if (compile) {
+                var source = sources.get(uri);
+                current = diagnoseSources(List.of(source != null ? source : readSource(uri)), cancel);
+            }
+
+            awaitUnusedPass(current);
+            if (hold(current.result(), cancel)) {
+                return current.result();
+            }
+
+            // Retired and reused in the meantime, or kept by another reader.
+            compile = true;
         }
+    }
 
-        return previousCompilationResult;
+    /**
+     * Like {@link #taskForUri(String)}, but accepts an incremental result as
+     * long as the body at the position was not blanked out.
+     */
+    CompilationResult taskForUri(String uri, Position position) {
+        return taskForUri(uri, position, NEVER);
     }
-    
-    CompilationUnitTree compilationUnitFor(String uri) {
-        var tree = compilationUnits.get(uri);
-        if (tree == null) {
-            diagnose(uri);
-            tree = compilationUnits.get(uri);
+
+    CompilationResult taskForUri(String uri, Position position, CancelChecker cancel) {
+        var current = snapshots.get(uri);
+        if ((current == null || !isFresh(current, uri)) && sources.containsKey(uri)) {
+            current = recompile(uri, cancel);
+        }
+
+        if (current != null && isFresh(current, uri)) {
+            var result = current.result();
+            var tree = result.findTreeForUri(uri);
+            if (tree.isPresent() && !result.isPruned(Util.decodePosition(tree.get().getLineMap(), position))) {
+                awaitUnusedPass(current);
+                if (hold(result, cancel)) {
+                    return result;
+                }
+            }
         }
 
-        return tree;
+        return taskForUri(uri, cancel);
     }
 
-    CompilationUnitTree compilationUnitArbiraryUri(String uri) {
+    /**
+     * Takes the result for the calling thread, the only one using its task
+     * until it closes the result. False if the result was released in the
+     * meantime, or if another reader kept it for longer than {@code
+     * --task.wait.ms}: two readers each waiting for the result the other
+     * one keeps would otherwise wait forever.
+     */
+    private static boolean hold(CompilationResult result, CancelChecker cancel) {
+        var lease = result.lease();
+        if (!lease.retain()) {
+            return false;
+        }
+
+        var held = false;
+        try {
+            var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TASK_WAIT_MS);
+            while (!(held = lease.tryLock(50, TimeUnit.MILLISECONDS)) && System.nanoTime() < deadline) {
+                cancel.checkCanceled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a compilation result");
+        } finally {
+            if (!held) {
+                lease.release();
+            }
+        }
+
+        if (!held) {
+            LOG.fine(() -> "Another reader kept the compilation result, compiling one of its own");
+        }
+
+        return held;
+    }
+
+    private static JavaSource readSource(String uri) {
         var uriObj = URI.create(uri);
-        JavaFileObject source;
         try {
-            source = new JavaSource(uriObj, Files.readString(Path.of(uriObj)));
+            return new JavaSource(uriObj, Files.readString(Path.of(uriObj)));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-
-        diagnoseSources(List.of(source));
-
-        return previousCompilationResult.findTreeForUri(uri).orElseThrow();
     }
     
+    /**
+     * The source of the type in the source directories, the one of its
+     * outermost type for a nested type.
+     */
     Optional<URI> findUriForType(TypeElement elem) {
-        // TODO get from file manager
-        var pathSep = FileSystems.getDefault().getSeparator();
-        var suffix = Path.of(Pattern.compile("\\.").splitAsStream(elem.toString())
-                .collect(Collectors.joining(pathSep)) + ".java");
-        
-        if (Files.exists(srcDir.resolve(suffix))) {
-            return Optional.of(srcDir.resolve(suffix).toUri());
+        var type = elem;
+        while (type.getEnclosingElement() instanceof TypeElement outer) {
+            type = outer;
+        }
+
+        try {
+            var source = fileMgr.getJavaFileForInput(SOURCES, type.getQualifiedName().toString(), JavaFileObject.Kind.SOURCE);
+            return Optional.ofNullable(source).map(FileObject::toUri);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
-        return Optional.empty();
     }
 
     public String getPackageForUri(String uri) {
@@ -326,15 +1245,19 @@ public class Project {
     }
 
     public TypeElement getTypeElement(Elements elementsUtil, CharSequence canonName) {
-        // The Elements#getTypeElement mutates the state of the fileMgr, hence
-        // allow only a single thread at a time.
-        synchronized(fileMgr) {
-            return (TypeElement) elementsUtil.getTypeElement(canonName);
-        }
+        // Completes symbols of the task, the caller holds its result.
+        return (TypeElement) elementsUtil.getTypeElement(canonName);
     }
 
     public void close() {
+        synchronized (snapshots) {
+            var retired = List.copyOf(snapshots.values());
+            snapshots.clear();
+            retired.stream().distinct().forEach(s -> s.result().lease().release());
+        }
+
         try {
+            workspaceIndex.close();
             fileMgr.close();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
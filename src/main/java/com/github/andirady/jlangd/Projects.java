@@ -6,9 +6,10 @@ package com.github.andirady.jlangd;
 
 import java.net.URI;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
@@ -27,12 +28,20 @@ public final class Projects {
     }
 
     public static Project forPath(Path path) {
-        var project = INSTANCE.projectInstances.stream()
-                .filter(p -> path.startsWith(p.path()))
-                .findFirst()
-                .orElse(null);
+        var project = INSTANCE.find(path);
+        if (project != null) {
+            return project;
+        }
+
+        // Reading a project blocks on I/O, a lock rather than a monitor keeps
+        // a waiting virtual thread from pinning its carrier.
+        INSTANCE.lock.lock();
+        try {
+            project = INSTANCE.find(path);
+            if (project != null) {
+                return project;
+            }
 
-        if (project == null) {
             var readers = ServiceLoader.load(ProjectReader.class);
             for (var reader : readers) {
                 var p = reader.readProject(path);
@@ -48,17 +57,29 @@ public final class Projects {
 
             INSTANCE.projectInstances.add(project);
             return project;
+        } finally {
+            INSTANCE.lock.unlock();
         }
-        
-        return project;
+    }
+
+    static List<Project> all() {
+        return List.copyOf(INSTANCE.projectInstances);
     }
 
     public static void closeAll() {
         INSTANCE.projectInstances.stream().forEach(Project::close);
     }
 
-    private final List<Project> projectInstances = new ArrayList<>();
+    private final List<Project> projectInstances = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
 
     private Projects() {
     }
+
+    private Project find(Path path) {
+        return projectInstances.stream()
+                .filter(p -> path.startsWith(p.path()))
+                .findFirst()
+                .orElse(null);
+    }
 }
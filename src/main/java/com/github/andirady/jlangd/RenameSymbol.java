@@ -11,6 +11,7 @@ import java.util.logging.*;
 import javax.lang.model.element.*;
 import javax.tools.*;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.eclipse.lsp4j.jsonrpc.messages.*;
 
 public class RenameSymbol {
@@ -19,6 +20,7 @@ public class RenameSymbol {
 
     private final Project project;
     private final String uri;
+    private CancelChecker cancel = () -> {};
 
     public RenameSymbol(Project project, String uri) {
         this.project = project;
@@ -26,10 +28,21 @@ public class RenameSymbol {
     }
 
     public WorkspaceEdit rename(Position position, String newName) {
-        var tree = project.compilationUnitFor(uri);
-        var task = project.previousTask().orElseThrow();
-        var trees = Trees.instance(task);
-        var finder = new FindNodeInTree(trees, tree);
+        return rename(position, newName, () -> {});
+    }
+
+    public WorkspaceEdit rename(Position position, String newName, CancelChecker cancel) {
+        this.cancel = cancel;
+        // Every occurrence is looked for, so no body may be blanked out.
+        try (var result = project.taskForUri(uri, cancel)) {
+            return rename(result, position, newName);
+        }
+    }
+
+    private WorkspaceEdit rename(Project.CompilationResult result, Position position, String newName) {
+        var tree = result.findTreeForUri(uri).orElseThrow();
+        var trees = result.treesUtil();
+        var finder = new FindNodeInTree(trees, tree, result.nodes(tree));
         var lineMap = tree.getLineMap();
         var sourcePositions = trees.getSourcePositions();
         var cursor = Util.decodePosition(lineMap, position);
@@ -83,6 +96,12 @@ public class RenameSymbol {
         var out = new ArrayList<TextEdit>();
         var scanner = new TreePathScanner<Void, Tree>() {
 
+            @Override
+            public Void scan(Tree node, Tree p) {
+                cancel.checkCanceled();
+                return super.scan(node, p);
+            }
+
 			@Override
 			public Void visitIdentifier(IdentifierTree node, Tree p) {
 				var el = trees.getElement(getCurrentPath());
@@ -128,6 +147,12 @@ public class RenameSymbol {
 		var out = new ArrayList<TextEdit>();
 		var scanner = new TreePathScanner<Void, Void>() {
 
+			@Override
+			public Void scan(Tree node, Void p) {
+				cancel.checkCanceled();
+				return super.scan(node, p);
+			}
+
 			@Override
 			public Void visitIdentifier(IdentifierTree node, Void p) {
 				var el = trees.getElement(getCurrentPath());
@@ -0,0 +1,204 @@
+package com.github.andirady.jlangd;
+
+/**
+ * Immutable text as a height balanced tree of string leaves. Replacing a
+ * range shares every untouched leaf with the original, so an edit costs
+ * O(log n) instead of copying the whole text.
+ */
+final class Rope implements CharSequence {
+
+    private static final int LEAF_SIZE = 1024;
+    private static final Rope EMPTY = new Rope("");
+
+    private final String leaf;
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int height;
+
+    private Rope(String leaf) {
+        this.leaf = leaf;
+        this.left = null;
+        this.right = null;
+        this.length = leaf.length();
+        this.height = 0;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.leaf = null;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.height = Math.max(left.height, right.height) + 1;
+    }
+
+    static Rope of(CharSequence text) {
+        return of(text.toString(), 0, text.length());
+    }
+
+    private static Rope of(String text, int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            return from == to ? EMPTY : new Rope(text.substring(from, to));
+        }
+
+        var mid = (from + to) >>> 1;
+        return new Rope(of(text, from, mid), of(text, mid, to));
+    }
+
+    /**
+     * A rope with the characters in {@code [start, end)} replaced by
+     * {@code text}.
+     */
+    Rope replace(int start, int end, CharSequence text) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length);
+        }
+
+        return join(join(prefix(start), of(text)), suffix(end));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        var node = this;
+        while (node.leaf == null) {
+            if (index < node.left.length) {
+                node = node.left;
+            } else {
+                index -= node.left.length;
+                node = node.right;
+            }
+        }
+
+        return node.leaf.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length);
+        }
+
+        return suffix(start).prefix(end - start);
+    }
+
+    @Override
+    public String toString() {
+        if (leaf != null) {
+            return leaf;
+        }
+
+        var sb = new StringBuilder(length);
+        append(sb);
+        return sb.toString();
+    }
+
+    int height() {
+        return height;
+    }
+
+    private void append(StringBuilder sb) {
+        if (leaf != null) {
+            sb.append(leaf);
+        } else {
+            left.append(sb);
+            right.append(sb);
+        }
+    }
+
+    private Rope prefix(int end) {
+        if (end <= 0) {
+            return EMPTY;
+        }
+
+        if (end >= length) {
+            return this;
+        }
+
+        if (leaf != null) {
+            return new Rope(leaf.substring(0, end));
+        }
+
+        return end <= left.length ? left.prefix(end) : join(left, right.prefix(end - left.length));
+    }
+
+    private Rope suffix(int start) {
+        if (start <= 0) {
+            return this;
+        }
+
+        if (start >= length) {
+            return EMPTY;
+        }
+
+        if (leaf != null) {
+            return new Rope(leaf.substring(start));
+        }
+
+        return start >= left.length ? right.suffix(start - left.length) : join(left.suffix(start), right);
+    }
+
+    /**
+     * Concatenates two ropes, keeping the result balanced. Small neighbours
+     * are merged into one leaf so typing does not fragment the tree.
+     */
+    private static Rope join(Rope a, Rope b) {
+        if (a.length == 0) {
+            return b;
+        }
+
+        if (b.length == 0) {
+            return a;
+        }
+
+        if (a.length + b.length <= LEAF_SIZE / 4) {
+            return new Rope(a.toString() + b);
+        }
+
+        if (a.height > b.height + 1) {
+            return balance(a.left, join(a.right, b));
+        }
+
+        if (b.height > a.height + 1) {
+            return balance(join(a, b.left), b.right);
+        }
+
+        return new Rope(a, b);
+    }
+
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height > right.height + 1) {
+            if (left.right.height > left.left.height) {
+                left = rotateLeft(left.left, left.right);
+            }
+
+            return new Rope(left.left, new Rope(left.right, right));
+        }
+
+        if (right.height > left.height + 1) {
+            if (right.left.height > right.right.height) {
+                right = rotateRight(right.left, right.right);
+            }
+
+            return new Rope(new Rope(left, right.left), right.right);
+        }
+
+        return new Rope(left, right);
+    }
+
+    private static Rope rotateLeft(Rope left, Rope right) {
+        return new Rope(new Rope(left, right.left), right.right);
+    }
+
+    private static Rope rotateRight(Rope left, Rope right) {
+        return new Rope(left.left, new Rope(left.right, right));
+    }
+}
@@ -1,7 +1,9 @@
 package com.github.andirady.jlangd;
 
+import com.google.gson.*;
 import com.sun.source.tree.*;
 import com.sun.source.util.*;
+import java.io.*;
 import java.util.*;
 import java.util.function.*;
 import java.util.logging.*;
@@ -11,6 +13,7 @@ import javax.lang.model.type.*;
 import javax.lang.model.util.*;
 
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.eclipse.lsp4j.jsonrpc.messages.*;
 
 public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integer> {
@@ -25,28 +28,176 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
     private Elements elementsUtil;
     private Types typesUtil;
     private CompilationUnitTree tree;
+    // The text of the tree, not the pruned copy an incremental compilation parsed.
+    private CharSequence text;
     private SourcePositions sourcePositions;
+    private NodeIndex nodes;
+    private MemberTables members;
+    // Whether candidates were left out, beyond the ones that can be listed.
+    private boolean truncated;
+    // The names found in scope instead of the types, null if the types were looked at.
+    private List<String> inScope;
 
     private Scope scope;
     private int cursor;
+    private CancelChecker cancel = () -> {};
+    // The candidates needing edits, and the parameters of the executables by key.
+    private final Map<CompletionItem, CompletionSession.Candidate> candidates = new IdentityHashMap<>();
+    private final Map<String, VariableElement> parameters = new HashMap<>();
 
     public SuggestCompletion(Project project, String uri) {
         this.project = project;
         this.uri = uri;
-        var task = project.taskForUri(uri);
-        this.task = task.task();
         this.classpath = project.classpathString();
-        this.elementsUtil = task.task().getElements();
-        this.typesUtil = task.task().getTypes();
-        this.tree = task.findTreeForUri(uri).orElseThrow();
     }
 
-    public Stream<CompletionItem> complete(Position pos) {
+    public CompletionList complete(Position pos) {
+        return complete(pos, () -> {});
+    }
+
+    /**
+     * The best ranked suggestions at the position, at most
+     * {@code --completion.limit} of them. Documentation and deprecation are
+     * left to {@link #resolve(CompletionItem)}. While the identifier at the
+     * position is still being typed, the suggestions found for it by the
+     * previous completion are filtered instead.
+     * <p>
+     * The scan throws a {@link java.util.concurrent.CancellationException}
+     * once the checker says the request was cancelled.
+     */
+    public CompletionList complete(Position pos, CancelChecker cancel) {
+        this.cancel = cancel;
+        var refined = refine(pos);
+        if (refined != null) {
+            LOG.fine(() -> "Refined the suggestions of the previous completion");
+            return refined;
+        }
+
+        try (var result = project.taskForUri(uri, pos, cancel)) {
+            // Ranked while the result is held, the kept items are completed from its task.
+            var items = complete(result, pos).toList();
+            var session = session(items);
+            var list = session.list(typed(), key -> argument(parameters.get(key)), cancel);
+            project.completionSession(uri, session);
+            return list;
+        } finally {
+            candidates.clear();
+            parameters.clear();
+        }
+    }
+
+    /**
+     * Adds the documentation and the deprecation of the item's element.
+     */
+    public CompletionItem resolve(CompletionItem item) {
+        if (!(item.getData() instanceof JsonObject data) || !data.has("type"))
+            return item;
+
+        // Only declarations are needed, these are never in a pruned body.
+        try (var result = project.taskForUri(uri, new Position(0, 0))) {
+            var elements = result.task().getElements();
+            var type = project.getTypeElement(elements, data.get("type").getAsString());
+            var element = type == null || !data.has("name") ? type : findExecutable(type, data);
+            if (element == null)
+                return item;
+
+            if (elements.isDeprecated(element))
+                item.setTags(List.of(CompletionItemTag.Deprecated));
+
+            var comment = DocTrees.instance(result.task()).getDocCommentTree(element);
+            if (comment != null)
+                item.setDocumentation(comment.toString());
+        }
+
+        return item;
+    }
+
+    private static ExecutableElement findExecutable(TypeElement type, JsonObject data) {
+        var name = data.get("name").getAsString();
+        var parameters = new ArrayList<String>();
+        data.getAsJsonArray("parameters").forEach(p -> parameters.add(p.getAsString()));
+
+        return ElementFilter.methodsIn(type.getEnclosedElements()).stream()
+                            .filter(e -> e.getSimpleName().contentEquals(name))
+                            .filter(e -> parameterTypes(e).equals(parameters))
+                            .findFirst()
+                            .or(() -> ElementFilter.constructorsIn(type.getEnclosedElements()).stream()
+                                                   .filter(e -> e.getSimpleName().contentEquals(name))
+                                                   .filter(e -> parameterTypes(e).equals(parameters))
+                                                   .findFirst())
+                            .orElse(null);
+    }
+
+    private static List<String> parameterTypes(ExecutableElement elem) {
+        return elem.getParameters().stream().map(p -> p.asType().toString()).toList();
+    }
+
+    private CompletionList refine(Position pos) {
+        var source = project.getJavaSource(uri).orElse(null);
+        var previous = project.completionSession(uri);
+        if (source == null || previous == null)
+            return null;
+
+        try {
+            var text = source.getCharContent(true).toString();
+            return previous.refine(text, Util.decodePosition(source.lines(), pos), cancel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CompletionSession session(List<CompletionItem> items) {
+        var imports = tree.getImports()
+                          .stream()
+                          .filter(imp -> !imp.isStatic())
+                          .map(imp -> imp.getQualifiedIdentifier().toString())
+                          .toList();
+
+        long pos;
+        if (imports.isEmpty()) {
+            var pkgTree = tree.getPackage();
+            pos = pkgTree == null ? 0 : sourcePositions.getEndPosition(tree, pkgTree);
+        } else {
+            var imps = tree.getImports();
+            pos = sourcePositions.getEndPosition(tree, imps.get(imps.size() - 1));
+        }
+
+        return new CompletionSession(text.toString(),
+                                     cursor,
+                                     truncated,
+                                     inScope,
+                                     items.stream()
+                                          .map(i -> candidates.getOrDefault(i, CompletionSession.Candidate.of(i)))
+                                          .toList(),
+                                     imports,
+                                     Util.encodePosition(tree.getLineMap(), pos));
+    }
+
+    /**
+     * The part of the identifier before the cursor.
+     */
+    private String typed() {
+        var end = Math.min(cursor, text.length());
+        return text.subSequence(CompletionSession.identifierStart(text, end), end).toString();
+    }
+
+    private Stream<CompletionItem> complete(Project.CompilationResult result, Position pos) {
+        task = result.task();
+        elementsUtil = task.getElements();
+        typesUtil = task.getTypes();
+        tree = result.findTreeForUri(uri).orElseThrow();
+        try {
+            text = result.text(tree);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        members = result.members();
+        nodes = result.nodes(tree);
         treesUtil = Trees.instance(task);
         sourcePositions = treesUtil.getSourcePositions();
 
         var lineMap = tree.getLineMap();
-        cursor = (int) lineMap.getPosition(pos.getLine() + 1L, pos.getCharacter() + 1L);
+        cursor = Util.decodePosition(lineMap, pos);
 
         var node = findNode(cursor);
 
@@ -62,7 +213,13 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
 
         this.scope = treesUtil.getScope(path);
 
-        return scan(node, cursor);
+        return scan(node, cursor).peek(i -> cancel.checkCanceled());
+    }
+
+    @Override
+    public Stream<CompletionItem> scan(Tree node, Integer cursor) {
+        cancel.checkCanceled();
+        return super.scan(node, cursor);
     }
 
     @Override
@@ -148,10 +305,7 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
             return Stream.of();
         }
 
-        return elementsUtil.getAllMembers(type)
-                .stream()
-                .filter(e -> e.getKind() == ElementKind.ENUM_CONSTANT)
-                .map(this::convert);
+        return members.of(type).enumConstants().stream().map(this::convert);
     }
 
     @Override
@@ -206,34 +360,36 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
         LOG.fine(() -> "node: " + node + " " + node.getKind());
 
         var name = node.getName().toString();
+        var matcher = new FuzzyMatcher(name);
         var localScope = Stream.of(
                     streamLocalElements(),
                     Stream.ofNullable(scope.getEnclosingClass())
-                          .filter(Objects::nonNull)
-                          .map(elementsUtil::getAllMembers)
-                          .flatMap(List::stream),
+                          .flatMap(c -> members.of(c).all().stream()),
                     streamStaticImports()
                 )
                 .flatMap(s -> s)
                 .filter(Objects::nonNull)
-                .filter(el -> el.getSimpleName().toString().startsWith(name))
+                // Not by substring, a local containing the name would hide the types.
+                .filter(el -> matcher.score(el.getSimpleName()) >= FuzzyMatcher.CAMEL_HUMPS)
                 .toList();
 
         if (!localScope.isEmpty()) {
+            inScope = localScope.stream().map(e -> e.getSimpleName().toString()).toList();
             return localScope.stream()
                              .map(e -> (e instanceof ExecutableElement exe)
                                      ? convertExecutable(exe, node.getName()) : convert(e));
         }
 
-        return LoadTypes.streamTypeNames(classpath, cannonName -> {
-                            var simpleName = cannonName.substring(cannonName.lastIndexOf('.') + 1);
-                            return simpleName.contains(name);
-                        })
-                        .map(this::getTypeElement)
-                        .filter(Objects::nonNull)
-                        .filter(type -> treesUtil.isAccessible(scope, type))
-                        .map(e -> (e instanceof ExecutableElement exe)
-                                ? convertExecutable(exe, node.getName()) : convert(e));
+        // Best matches first, so only the types that can be listed are loaded.
+        var types = LoadTypes.catalogue(project.typeIndex(), classpath)
+                             .matching(matcher)
+                             .map(this::getTypeElement)
+                             .filter(Objects::nonNull)
+                             .filter(type -> treesUtil.isAccessible(scope, type))
+                             .limit(CompletionSession.LIMIT + 1L)
+                             .toList();
+        truncated |= types.size() > CompletionSession.LIMIT;
+        return types.stream().map(this::convert);
     }
 
     @Override
@@ -249,35 +405,33 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
     private Stream<CompletionItem> selectPackageMember(MemberSelectTree select) {
         var prefix = select.getIdentifier().contentEquals("<error>")
                    ? select.getExpression().toString() : select.toString();
-        synchronized (elementsUtil) {
-             return elementsUtil.getAllModuleElements().stream()
-                                .map(ModuleElement::getEnclosedElements)
-                                .flatMap(List::stream)
-                                .filter(p -> p.toString().startsWith(prefix))
-                                .map(PackageElement.class::cast)
-                                .flatMap(p -> {
-                                    return p.getQualifiedName().contentEquals(prefix)
-                                         ? p.getEnclosedElements().stream()
-                                         : Stream.of(p);
-                                })
-                                .map(p -> {
-                                    var name = p.toString();
-                                    var label = name.equals(prefix)
-                                              ? name
-                                              : name.substring(prefix.length() + 1, name.length());
-                                    var item = new CompletionItem(label);
-                                    item.setKind(switch (p.getKind()) {
-                                        case CLASS, RECORD -> CompletionItemKind.Class;
-                                        case ENUM -> CompletionItemKind.Enum;
-                                        case FIELD -> CompletionItemKind.Field;
-                                        case INTERFACE, ANNOTATION_TYPE -> CompletionItemKind.Interface;
-                                        case PACKAGE -> CompletionItemKind.Module;
-                                        default -> throw new IllegalArgumentException("Invalid element kind: " + p.getKind());
-                                    });
-
-                                    return item;
-                                });
-        }
+        return elementsUtil.getAllModuleElements().stream()
+                           .map(ModuleElement::getEnclosedElements)
+                           .flatMap(List::stream)
+                           .filter(p -> p.toString().startsWith(prefix))
+                           .map(PackageElement.class::cast)
+                           .flatMap(p -> {
+                               return p.getQualifiedName().contentEquals(prefix)
+                                    ? p.getEnclosedElements().stream()
+                                    : Stream.of(p);
+                           })
+                           .map(p -> {
+                               var name = p.toString();
+                               var label = name.equals(prefix)
+                                         ? name
+                                         : name.substring(prefix.length() + 1, name.length());
+                               var item = new CompletionItem(label);
+                               item.setKind(switch (p.getKind()) {
+                                   case CLASS, RECORD -> CompletionItemKind.Class;
+                                   case ENUM -> CompletionItemKind.Enum;
+                                   case FIELD -> CompletionItemKind.Field;
+                                   case INTERFACE, ANNOTATION_TYPE -> CompletionItemKind.Interface;
+                                   case PACKAGE -> CompletionItemKind.Module;
+                                   default -> throw new IllegalArgumentException("Invalid element kind: " + p.getKind());
+                               });
+
+                               return item;
+                           });
     }
 
     @Override
@@ -352,8 +506,7 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
                 var possiblyLocal = Stream.concat(
                         streamLocalElements(),
                         Stream.ofNullable(scope.getEnclosingClass())
-                              .map(elementsUtil::getAllMembers)
-                              .flatMap(List::stream)
+                              .flatMap(c -> members.of(c).all().stream())
                     )
                     .filter(el -> el.getSimpleName().contentEquals(pkgQName)).findFirst();
 
@@ -386,12 +539,11 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
                                         .map(converter);
         } else if (elem instanceof TypeElement type) {
             LOG.fine(() -> elem + " is type");
-            return elementsUtil.getAllMembers(type)
-                               .stream()
-                               .filter(el -> el.getModifiers().contains(Modifier.STATIC))
-                               .filter(el -> declared(el))
-                               .filter(el -> notConstructor(el))
-                               .filter(el -> memberAccessible(el, type)).filter(filter).map(converter);
+            return members.of(type)
+                          .staticMembers(scope.getEnclosingClass(), el -> memberAccessible(el, type))
+                          .stream()
+                          .filter(filter)
+                          .map(converter);
         } else if (elem instanceof VariableElement) {
             var typeMirror = elem.asType();
             var typeKind = typeMirror.getKind();
@@ -407,10 +559,10 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
         var expr = node.getIdentifier();
 
         if (expr instanceof IdentifierTree id) {
-            var types = ElementFilter.typesIn(elementsUtil.getAllMembers(scope.getEnclosingClass()));
-            var prefix = id.getName();
+            var types = members.of(scope.getEnclosingClass()).types();
+            var matcher = new FuzzyMatcher(id.getName());
             return Stream.concat(types.stream(), streamImportedTypes())
-                         .filter(t -> t.getSimpleName().toString().startsWith(prefix.toString()))
+                         .filter(t -> matcher.score(t.getSimpleName()) >= FuzzyMatcher.CAMEL_HUMPS)
                          .map(this::convert);
         } else if (expr instanceof MemberSelectTree memberSelect) {
             var selectExpr = memberSelect.getExpression().toString();
@@ -431,7 +583,7 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
                                     .map(c -> convertExecutable(c, prefix));
             }
 
-            var types = ElementFilter.typesIn(elementsUtil.getAllMembers(scope.getEnclosingClass()));
+            var types = members.of(scope.getEnclosingClass()).types();
             return Stream.concat(types.stream(), streamImportedTypes())
                          .filter(p -> p.getSimpleName().toString().equals(selectExpr))
                          .findFirst()
@@ -478,43 +630,21 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
 
     private Stream<? extends Element> nonStaticAccessMembers(TypeElement type) {
         return Stream.ofNullable(type)
-                .map(elementsUtil::getAllMembers)
-                .flatMap(List::stream)
-                .filter(this::notClassOrInterface)
-                .filter(this::notStatic)
-                .filter(this::notConstructor)
-                .filter(this::declared)
-                .filter(e -> memberAccessible(e, type));
-    }
-
-    private boolean declared(Element el) {
-        return elementsUtil.getOrigin(el).isDeclared();
+                .flatMap(t -> members.of(t)
+                                     .instanceMembers(scope.getEnclosingClass(), e -> memberAccessible(e, t))
+                                     .stream());
     }
 
     private boolean memberAccessible(Element member, TypeElement type) {
         return treesUtil.isAccessible(scope, member, typesUtil.getDeclaredType(type));
     }
 
-    private boolean notClassOrInterface(Element el) {
-        var kind = el.getKind();
-        return !(kind.isClass() || kind.isInterface());
-    }
-
-    private boolean notConstructor(Element el) {
-        return el.getKind() != ElementKind.CONSTRUCTOR;
-    }
-
     private boolean nonPrivateOrProtected(Element el) {
         return el.getModifiers()
                  .stream()
                  .noneMatch(Set.of(Modifier.PRIVATE, Modifier.PROTECTED)::contains);
     }
 
-    private boolean notStatic(Element el) {
-        return !el.getModifiers().contains(Modifier.STATIC)
-                && el.getKind() != ElementKind.STATIC_INIT;
-    }
-
     private Stream<TypeElement> streamImportedTypes() {
         return tree.getImports().stream()
                    .map(ImportTree::getQualifiedIdentifier)
@@ -594,77 +724,73 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
     }
 
     /**
+     * An item with the label, the kind and the signature of the executable.
+     * The call with its arguments is made by the session, for the items it
+     * keeps.
      */
     private CompletionItem convertExecutable(ExecutableElement elem, Name prefix) {
         var label = elem.getKind() == ElementKind.METHOD
                   ? elem.getSimpleName().toString()
                   : elem.getEnclosingElement().getSimpleName().toString(); // FIXME constructor
         var item = new CompletionItem(label);
-        var newText = elem.getParameters()
-            .stream()
-            .map(param -> streamLocalElements()
-                    .map(localElem -> {
-                        // FIXME this does not handle generics.
-                        if (localElem instanceof VariableElement ve) {
-                            if (typesUtil.isAssignable(ve.asType(), param.asType()))
-                                return ve.getSimpleName();
-                        }
-                        return null;
-                    })
-                    .filter(Objects::nonNull)
-                    .map(Name::toString)
-                    .sorted(Comparator.comparingInt(name -> param.getSimpleName().toString().equals(name) ? 0 : 1))
-                    .findFirst()
-                    .orElseGet(() -> switch (param.asType().getKind()) {
-                        case BOOLEAN -> "false";
-                        case BYTE, SHORT, INT -> "0";
-                        case LONG -> "0l";
-                        case DOUBLE -> "0.0";
-                        case FLOAT -> "0.0f";
-                            default -> {
-                                if (param.asType().toString().equals(String.class.getName())) {
-                                    yield "\"\"";
-                                }
-                                yield "null";
-                            }
-                    })
-            )
-            .collect(Collectors.joining(", "));
-
-        var lineMap = tree.getLineMap();
-        var cursorPos = Util.encodePosition(lineMap, cursor - prefix.length());
-        var textEdit = new TextEdit(new Range(cursorPos, cursorPos), elem.getSimpleName() + "(" + newText + ")");
-        item.setTextEdit(Either.forLeft(textEdit));
-
-        //var detail = String.format("%s%s%s %s(%s)",
-        //                           elem.getModifiers().stream().anyMatch(Modifier.STATIC::equals) ? "static " : "",
-        //                           elem.getTypeParameters().isEmpty()
-        //                                   ? ""
-        //                                   : elem.getTypeParameters()
-        //                                         .stream()
-        //                                         .map(Objects::toString)
-        //                                         .collect(Collectors.joining(", ", "<", "> ")),
-        //                           elem.getReturnType(),
-        //                           elem.getSimpleName(),
-        //                           elem.getParameters()
-        //                               .stream()
-        //                               .map(e -> e.asType() + " " + e.getSimpleName())
-        //                               .collect(Collectors.joining(", ")));
-
         item.setDetail(elem.getReturnType() + " " + elem);
         item.setKind(CompletionItemKind.Method);
-        if (elementsUtil.isDeprecated(elem))
-            item.setTags(List.of(CompletionItemTag.Deprecated));
 
-        var docTrees = DocTrees.instance(task);
-        var comment = docTrees.getDocCommentTree(elem);
-        if (comment != null) {
-            item.setDocumentation(comment.toString());
+        if (elem.getEnclosingElement() instanceof TypeElement type) {
+            var data = new JsonObject();
+            data.addProperty("uri", uri);
+            data.addProperty("type", type.getQualifiedName().toString());
+            data.addProperty("name", elem.getSimpleName().toString());
+            var parameters = new JsonArray();
+            parameterTypes(elem).forEach(parameters::add);
+            data.add("parameters", parameters);
+            item.setData(data);
+        }
+
+        var keys = new ArrayList<String>();
+        for (var param : elem.getParameters()) {
+            var key = param.asType() + " " + param.getSimpleName();
+            parameters.putIfAbsent(key, param);
+            keys.add(key);
         }
 
+        var at = Util.encodePosition(tree.getLineMap(), cursor - prefix.length());
+        candidates.put(item, CompletionSession.Candidate.call(item, elem.getSimpleName().toString(), keys, at));
         return item;
     }
 
+    /**
+     * The local to pass for the parameter, or a default value.
+     */
+    private String argument(VariableElement param) {
+        return streamLocalElements()
+            .map(localElem -> {
+                // FIXME this does not handle generics.
+                if (localElem instanceof VariableElement ve) {
+                    if (typesUtil.isAssignable(ve.asType(), param.asType()))
+                        return ve.getSimpleName();
+                }
+                return null;
+            })
+            .filter(Objects::nonNull)
+            .map(Name::toString)
+            .sorted(Comparator.comparingInt(name -> param.getSimpleName().toString().equals(name) ? 0 : 1))
+            .findFirst()
+            .orElseGet(() -> switch (param.asType().getKind()) {
+                case BOOLEAN -> "false";
+                case BYTE, SHORT, INT -> "0";
+                case LONG -> "0l";
+                case DOUBLE -> "0.0";
+                case FLOAT -> "0.0f";
+                    default -> {
+                        if (param.asType().toString().equals(String.class.getName())) {
+                            yield "\"\"";
+                        }
+                        yield "null";
+                    }
+            });
+    }
+
     private CompletionItem convert(TypeElement type) {
         var item = new CompletionItem(type.getSimpleName().toString());
         item.setKind(switch (type.getKind()) {
@@ -679,206 +805,63 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
             item.setDetail(pkgOrType.toString());
         }
 
-        item.setData(uri);
+        var data = new JsonObject();
+        data.addProperty("uri", uri);
+        data.addProperty("type", type.getQualifiedName().toString());
+        item.setData(data);
+
+        candidates.put(item, CompletionSession.Candidate.type(item));
         return item;
     }
-    
-    private Tree findNode(int cursor) {
-
-        var finder = new TreeScanner<Tree, Void>() {
-
-            @Override
-            public Tree reduce(Tree r1, Tree r2) {
-                if (r1 == null && r2 == null) return null;
-                if (r1 == null) return r2;
-                if (r2 == null) return r1;
-
-                // returns the innermost node.
-                return sourcePositions.getStartPosition(tree, r2) > sourcePositions.getStartPosition(tree, r1)
-                        ? r2 : r1;
-            }
-
-            @Override
-            public Tree scan(Tree node, Void p) {
-                if (within(node, cursor)) {
-                    LOG.fine(() -> node.getKind() + ", " + node.getClass());
-                    return super.scan(node, p);
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitBinary(BinaryTree node, Void p) {
-                if (within(node, cursor)) {
-                    var kind = node.getKind();
-                    // Might be enum
-                    if ((kind == Tree.Kind.EQUAL_TO || kind == Tree.Kind.NOT_EQUAL_TO)
-                            && within(node.getRightOperand(), cursor)) {
-                        return node;
-                    }
-
-                    return super.visitBinary(node, p);
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitBlock(BlockTree node, Void p) {
-                if (definedBefore(node, cursor)) {
-                    return null; // not interested
-                }
-
-                return super.visitBlock(node, p);
-            }
-
-            @Override
-            public Tree visitCase(CaseTree node, Void p) {
-                if (within(node, cursor)) {
-                    return node;
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitClass(ClassTree node, Void p) {
-                if (definedBefore(node, cursor)) {
-                    return null; // not interested
-                }
-
-                return super.visitClass(node, p);
-            }
-
-            @Override
-            public Tree visitErroneous(ErroneousTree node, Void p) {
-                if (within(node, cursor)) {
-                    return node;
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitIdentifier(IdentifierTree node, Void p) {
-                if (within(node, cursor)) {
-                    return node;
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitImport(ImportTree node, Void p) {
-                if (within(node, cursor)) {
-                    return node;
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitLiteral(LiteralTree node, Void p) {
-                // Ignore literals.
-                return null;
-            }
-
-            @Override
-            public Tree visitMemberReference(MemberReferenceTree node, Void p) {
-                if (within(node, cursor)) {
-                    return node;
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitMemberSelect(MemberSelectTree node, Void p) {
-                if (within(node, cursor)) {
-                    var expr = scan(node.getExpression(), p);
-                    // FIXME this does not properly resolve to the correct member select.
-                    // e.g.:
-                    //   foo.bar.baz
-                    //      ^ cursor is here
-                    // will not resolve to ``foo.``
-                    if (expr != null) {
-                        return expr;
-                    }
-
-                    return node;
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitMethod(MethodTree node, Void p) {
-                if (definedBefore(node, cursor)) {
-                    return null; // not interested
-                }
-
-                return super.visitMethod(node, p);
-            }
-
-            @Override
-            public Tree visitNewClass(NewClassTree node, Void p) {
-                if (within(node, cursor)) {
-                    var id = scan(node.getIdentifier(), p);
-                    if (id != null)
-                        return id;
-
-                    var arg = scan(node.getArguments(), p);
-                    if (arg != null)
-                        return arg;
-
-                    var body = node.getClassBody();
-                    if (body != null) {
-                        var n = scan(body, p);
-                        if (n != null)
-                            return n;
-                    }
-                }
-
-                return null;
-            }
-
-            @Override
-            public Tree visitPackage(PackageTree node, Void p) {
-                if (definedBefore(node, cursor)) {
-                    return null; // not interested
-                }
-
-                return node;
-            }
-
-            private boolean within(Tree node, int cursor) {
-                var start = sourcePositions.getStartPosition(tree, node);
-                if (start > cursor || start == -1) return false;
-
-                var end = sourcePositions.getEndPosition(tree, node);
-                if (end == -1) return false;
-
-                var result = cursor >= start && cursor <= end;
-                if (result)
-                    LOG.fine(node.getKind() + " start: " + start + ", end: " + end + ", cursor: " + cursor);
-
-                return result;
-            }
-
-            private boolean definedBefore(Tree node, int cursor) {
-                var end = sourcePositions.getEndPosition(tree, node);
-                return end < cursor;
-            }
-        };
 
+    private Tree findNode(int cursor) {
         var t0 = System.currentTimeMillis();
-        var found = tree.accept(finder, null);
+        var found = findNode(nodes.enclosing(cursor), 0);
         LOG.fine(() -> "Found " + found + " " + (found != null ? found.getKind() : "")
                      + " in " + (System.currentTimeMillis() - t0) + " ms");
         return found;
     }
 
+    /**
+     * The node to complete, looked for from the node at {@code i} of the
+     * ones enclosing the cursor, the outermost first.
+     */
+    private Tree findNode(List<Tree> enclosing, int i) {
+        if (i == enclosing.size())
+            return null;
+
+        var node = enclosing.get(i);
+        if (node instanceof LiteralTree)
+            return null; // Ignore literals.
+
+        var next = i + 1 < enclosing.size() ? enclosing.get(i + 1) : null;
+        return switch (node.getKind()) {
+            case CASE, ERRONEOUS, IDENTIFIER, IMPORT, MEMBER_REFERENCE, PACKAGE -> node;
+            // Might be enum
+            case EQUAL_TO, NOT_EQUAL_TO -> nodes.contains(((BinaryTree) node).getRightOperand(), cursor)
+                                           ? node
+                                           : findNode(enclosing, i + 1);
+            case MEMBER_SELECT -> {
+                // FIXME this does not properly resolve to the correct member select.
+                // e.g.:
+                //   foo.bar.baz
+                //      ^ cursor is here
+                // will not resolve to ``foo.``
+                var expr = findNode(enclosing, i + 1);
+                yield expr != null ? expr : node;
+            }
+            case NEW_CLASS -> {
+                var newClass = (NewClassTree) node;
+                yield next == newClass.getIdentifier()
+                        || newClass.getArguments().contains(next)
+                        || next == newClass.getClassBody()
+                      ? findNode(enclosing, i + 1)
+                      : null;
+            }
+            default -> findNode(enclosing, i + 1);
+        };
+    }
+
     class ResolveElement extends TreeScanner<Element, String> {
 
         @Override
@@ -894,7 +877,7 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
             do {
                 var current = Stream.concat(
                                   StreamSupport.stream(sc.getLocalElements().spliterator(), false),
-                                  elementsUtil.getAllMembers(ec).stream()
+                                  members.of(ec).all().stream()
                               );
 
                 stream = Stream.concat(stream, current);
@@ -930,7 +913,8 @@ public class SuggestCompletion extends TreeScanner<Stream<CompletionItem>, Integ
             var identifier = node.getIdentifier();
             var type = asTypeElement(elem);
 
-            return elementsUtil.getAllMembers(type)
+            return members.of(type)
+                    .all()
                     .stream()
                     .filter(e -> e.getSimpleName().contentEquals(identifier))
                     .map(e -> {
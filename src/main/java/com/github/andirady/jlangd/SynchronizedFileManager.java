@@ -0,0 +1,111 @@
+package com.github.andirady.jlangd;
+
+import java.io.*;
+import java.util.*;
+import javax.tools.*;
+
+/**
+ * A file manager shared by a running compilation and the readers completing
+ * symbols of an earlier one. The standard file manager caches the archives
+ * it opened in plain maps, so each call is made under a lock, held only for
+ * the duration of that call.
+ */
+class SynchronizedFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+    SynchronizedFileManager(JavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public synchronized Iterable<JavaFileObject> list(Location location,
+                                                      String packageName,
+                                                      Set<JavaFileObject.Kind> kinds,
+                                                      boolean recurse) throws IOException {
+        return super.list(location, packageName, kinds, recurse);
+    }
+
+    @Override
+    public synchronized String inferBinaryName(Location location, JavaFileObject file) {
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public synchronized boolean isSameFile(FileObject a, FileObject b) {
+        return super.isSameFile(a, b);
+    }
+
+    @Override
+    public synchronized boolean handleOption(String current, Iterator<String> remaining) {
+        return super.handleOption(current, remaining);
+    }
+
+    @Override
+    public synchronized boolean hasLocation(Location location) {
+        return super.hasLocation(location);
+    }
+
+    @Override
+    public synchronized JavaFileObject getJavaFileForInput(Location location,
+                                                           String className,
+                                                           JavaFileObject.Kind kind) throws IOException {
+        return super.getJavaFileForInput(location, className, kind);
+    }
+
+    @Override
+    public synchronized JavaFileObject getJavaFileForOutput(Location location,
+                                                            String className,
+                                                            JavaFileObject.Kind kind,
+                                                            FileObject sibling) throws IOException {
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    @Override
+    public synchronized FileObject getFileForInput(Location location,
+                                                   String packageName,
+                                                   String relativeName) throws IOException {
+        return super.getFileForInput(location, packageName, relativeName);
+    }
+
+    @Override
+    public synchronized FileObject getFileForOutput(Location location,
+                                                    String packageName,
+                                                    String relativeName,
+                                                    FileObject sibling) throws IOException {
+        return super.getFileForOutput(location, packageName, relativeName, sibling);
+    }
+
+    @Override
+    public synchronized Location getLocationForModule(Location location, String moduleName) throws IOException {
+        return super.getLocationForModule(location, moduleName);
+    }
+
+    @Override
+    public synchronized Location getLocationForModule(Location location, JavaFileObject fo) throws IOException {
+        return super.getLocationForModule(location, fo);
+    }
+
+    @Override
+    public synchronized Iterable<Set<Location>> listLocationsForModules(Location location) throws IOException {
+        return super.listLocationsForModules(location);
+    }
+
+    @Override
+    public synchronized String inferModuleName(Location location) throws IOException {
+        return super.inferModuleName(location);
+    }
+
+    @Override
+    public synchronized boolean contains(Location location, FileObject fo) throws IOException {
+        return super.contains(location, fo);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        super.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+    }
+}
@@ -0,0 +1,532 @@
+package com.github.andirady.jlangd;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.*;
+import java.util.stream.*;
+
+/**
+ * Type names of a classpath (plus the runtime image) indexed by simple name.
+ * Each jar is a {@link Segment} with its own index, so segments are shared
+ * between classpaths and rebuilt only when their jar changes.
+ */
+public final class TypeCatalogue {
+
+    private final List<Segment> segments;
+
+    TypeCatalogue(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Types whose simple name starts with {@code prefix}.
+     */
+    public Stream<String> startingWith(String prefix) {
+        return segments.stream().flatMap(s -> s.startingWith(prefix));
+    }
+
+    /**
+     * Types whose simple name contains {@code infix}.
+     */
+    public Stream<String> containing(String infix) {
+        return segments.stream().flatMap(s -> s.containing(infix));
+    }
+
+    /**
+     * Types whose simple name the matcher matches, the best scored first.
+     */
+    public Stream<String> matching(FuzzyMatcher matcher) {
+        // Score, segment and handle of each match packed in a long, so
+        // sorting them needs no object per type.
+        var matches = new long[64];
+        var n = 0;
+        var letters = matcher.letters();
+        for (var i = 0; i < segments.size(); i++) {
+            var segment = segments.get(i);
+            var name = segment.new SimpleName();
+            for (var h = 0; h < segment.size(); h++) {
+                if ((segment.letters(h) & letters) != letters) {
+                    continue;
+                }
+
+                var score = matcher.score(name.of(h));
+                if (score == FuzzyMatcher.NO_MATCH) {
+                    continue;
+                }
+
+                if (n == matches.length) {
+                    matches = Arrays.copyOf(matches, n * 2);
+                }
+                matches[n++] = ((long) (Short.MAX_VALUE - score) << 48) | ((long) i << 32) | h;
+            }
+        }
+
+        Arrays.sort(matches, 0, n);
+        return Arrays.stream(matches, 0, n)
+                     .mapToObj(m -> segments.get((int) (m >>> 32) & 0xffff).name((int) m));
+    }
+
+    /**
+     * Types whose simple name is exactly {@code simpleName}.
+     */
+    public Stream<String> named(String simpleName) {
+        return segments.stream().flatMap(s -> s.named(simpleName));
+    }
+
+    public Stream<String> stream() {
+        return segments.stream().flatMap(Segment::names);
+    }
+
+    /**
+     * Number of types in the catalogue.
+     */
+    public int size() {
+        return segments.stream().mapToInt(Segment::size).sum();
+    }
+
+    /**
+     * The type names of a single jar, or of the runtime image, packed for a
+     * small heap footprint: qualifiers are interned in a package table and
+     * simple names are stored back to back in a byte arena (Latin-1, or
+     * UTF-16 if any name needs it). A type is an int handle into these
+     * tables, handles are ordered by simple name so prefix queries are a
+     * binary search, and a varint coded bigram/trigram posting index, built
+     * on the first substring query, serves those queries.
+     */
+    static final class Segment {
+
+        private static final Logger LOG = Logger.getLogger(Segment.class.getName());
+
+        private final TypeNameIndex.Key key;
+        private volatile long validatedAt;
+
+        private final String[] packages;
+        private final int[] packageOf;
+        private final byte[] arena;
+        private final int[] nameStart; // simple name of h is in arena[nameStart[h], nameStart[h + 1])
+        private final int[] letters; // the letters in the simple name of h, see FuzzyMatcher#letters
+        private final boolean utf16;
+
+        private volatile Grams grams;
+
+        private final long stringFootprint;
+
+        Segment(TypeNameIndex.Key key, List<String> names) {
+            this.key = key;
+            this.validatedAt = System.currentTimeMillis();
+
+            var t0 = System.currentTimeMillis();
+            var size = names.size();
+            var simple = new String[size];
+            var qualifier = new String[size];
+            var chars = 0;
+            var latin1 = true;
+            var strings = 0L;
+            for (var i = 0; i < size; i++) {
+                var name = names.get(i);
+                var dot = name.lastIndexOf('.');
+                simple[i] = name.substring(dot + 1);
+                qualifier[i] = dot < 0 ? "" : name.substring(0, dot);
+                chars += simple[i].length();
+                for (var j = 0; latin1 && j < simple[i].length(); j++) {
+                    latin1 = simple[i].charAt(j) < 0x100;
+                }
+                strings += stringFootprint(name);
+            }
+
+            var order = new Integer[size];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparing(i -> simple[i]));
+
+            var packageIds = new HashMap<String, Integer>();
+            utf16 = !latin1;
+            packageOf = new int[size];
+            nameStart = new int[size + 1];
+            letters = new int[size];
+            arena = new byte[utf16 ? chars * 2 : chars];
+            var pos = 0;
+            for (var h = 0; h < size; h++) {
+                var i = order[h];
+                packageOf[h] = packageIds.computeIfAbsent(qualifier[i], q -> packageIds.size());
+                nameStart[h] = pos;
+                letters[h] = FuzzyMatcher.letters(simple[i]);
+                for (var j = 0; j < simple[i].length(); j++) {
+                    var c = simple[i].charAt(j);
+                    if (utf16) {
+                        arena[pos++] = (byte) (c >> 8);
+                    }
+                    arena[pos++] = (byte) c;
+                }
+            }
+            nameStart[size] = pos;
+
+            packages = new String[packageIds.size()];
+            packageIds.forEach((q, id) -> packages[id] = q);
+
+            stringFootprint = strings + 16L + 4L * size;
+
+            LOG.fine(() -> String.format("Packed %d types of %s in %d ms, %d KB (%d KB as strings)",
+                                         size, where(),
+                                         System.currentTimeMillis() - t0,
+                                         footprint() / 1024, stringFootprint / 1024));
+        }
+
+        /**
+         * The distinct gram codes, ascending, and the postings of {@code
+         * codes[i]} in {@code postings[offsets[i], offsets[i + 1])}, as delta
+         * coded handles.
+         */
+        private record Grams(int[] codes, int[] offsets, byte[] postings) {}
+
+        private Grams grams() {
+            var g = grams;
+            if (g == null) {
+                synchronized (this) {
+                    g = grams;
+                    if (g == null) {
+                        grams = g = indexGrams();
+                    }
+                }
+            }
+
+            return g;
+        }
+
+        private Grams indexGrams() {
+            var t0 = System.currentTimeMillis();
+            var size = size();
+            var gramCount = 0;
+            for (var h = 0; h < size; h++) {
+                gramCount += Math.max(0, length(h) - 1) + Math.max(0, length(h) - 2);
+            }
+
+            // Each (gram, handle) pair packed into a long, so sorting groups
+            // the postings of a gram together in handle order.
+            var pairs = new long[gramCount];
+            var n = 0;
+            var name = new SimpleName();
+            for (var h = 0; h < size; h++) {
+                name.of(h);
+                for (var j = 0; j + 2 <= length(h); j++) {
+                    pairs[n++] = ((long) gram(name, j, 2) << 32) | h;
+                    if (j + 3 <= length(h)) {
+                        pairs[n++] = ((long) gram(name, j, 3) << 32) | h;
+                    }
+                }
+            }
+            Arrays.sort(pairs, 0, n);
+
+            var codes = new int[n];
+            var starts = new int[n + 1];
+            var buf = new byte[n * 2 + 16];
+            var distinct = 0;
+            var count = 0;
+            var previous = -1;
+            for (var k = 0; k < n; k++) {
+                if (k > 0 && pairs[k] == pairs[k - 1]) {
+                    continue;
+                }
+
+                var code = (int) (pairs[k] >>> 32);
+                if (distinct == 0 || codes[distinct - 1] != code) {
+                    codes[distinct] = code;
+                    starts[distinct++] = count;
+                    previous = -1;
+                }
+
+                if (count + 5 > buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+
+                var h = (int) pairs[k];
+                count = writeVarint(buf, count, h - previous);
+                previous = h;
+            }
+            starts[distinct] = count;
+
+            var built = new Grams(Arrays.copyOf(codes, distinct),
+                                  Arrays.copyOf(starts, distinct + 1),
+                                  Arrays.copyOf(buf, count));
+            LOG.fine(() -> String.format("Indexed the grams of %s in %d ms, %d KB",
+                                         where(), System.currentTimeMillis() - t0,
+                                         (built.postings().length + 4L * (built.codes().length + built.offsets().length))
+                                         / 1024));
+            return built;
+        }
+
+        private String where() {
+            return key == null ? "<memory>" : key.path().toString();
+        }
+
+        TypeNameIndex.Key key() {
+            return key;
+        }
+
+        long validatedAt() {
+            return validatedAt;
+        }
+
+        void validated(long time) {
+            validatedAt = time;
+        }
+
+        int size() {
+            return packageOf.length;
+        }
+
+        Stream<String> names() {
+            return IntStream.range(0, size()).mapToObj(this::name);
+        }
+
+        /**
+         * Canonical name of the type with the given handle.
+         */
+        String name(int h) {
+            var pkg = packages[packageOf[h]];
+            return pkg.isEmpty() ? simpleName(h) : pkg + "." + simpleName(h);
+        }
+
+        String simpleName(int h) {
+            var from = nameStart[h];
+            var to = nameStart[h + 1];
+            return utf16
+                 ? new String(arena, from, to - from, StandardCharsets.UTF_16BE)
+                 : new String(arena, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        int letters(int h) {
+            return letters[h];
+        }
+
+        int length(int h) {
+            var length = nameStart[h + 1] - nameStart[h];
+            return utf16 ? length >> 1 : length;
+        }
+
+        char charAt(int h, int i) {
+            if (utf16) {
+                var p = nameStart[h] + (i << 1);
+                return (char) (((arena[p] & 0xff) << 8) | (arena[p + 1] & 0xff));
+            }
+
+            return (char) (arena[nameStart[h] + i] & 0xff);
+        }
+
+        /**
+         * The simple name of a handle read in place, one view reused for
+         * every handle.
+         */
+        final class SimpleName implements CharSequence {
+
+            private int h;
+
+            SimpleName of(int handle) {
+                h = handle;
+                return this;
+            }
+
+            @Override
+            public int length() {
+                return Segment.this.length(h);
+            }
+
+            @Override
+            public char charAt(int index) {
+                return Segment.this.charAt(h, index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return simpleName(h);
+            }
+        }
+
+        /**
+         * Approximate heap footprint in bytes of the packed names.
+         */
+        long footprint() {
+            var tables = 16L * 5 + arena.length + 4L * (packageOf.length + nameStart.length + letters.length);
+            for (var p : packages) {
+                tables += stringFootprint(p) + 4;
+            }
+
+            return tables;
+        }
+
+        /**
+         * Approximate heap footprint in bytes of the gram index, none until a
+         * substring is looked for.
+         */
+        long indexFootprint() {
+            var g = grams;
+            return g == null ? 0 : 16L * 4 + g.postings().length + 4L * (g.codes().length + g.offsets().length);
+        }
+
+        /**
+         * Approximate heap footprint in bytes of the same names as a list of
+         * strings.
+         */
+        long stringFootprint() {
+            return stringFootprint;
+        }
+
+        Stream<String> startingWith(String prefix) {
+            return prefixRange(prefix).mapToObj(this::name);
+        }
+
+        Stream<String> named(String simpleName) {
+            return prefixRange(simpleName).filter(h -> length(h) == simpleName.length())
+                                          .mapToObj(this::name);
+        }
+
+        Stream<String> containing(String infix) {
+            if (infix.length() < 2) {
+                return IntStream.range(0, size())
+                                .filter(h -> contains(h, infix))
+                                .mapToObj(this::name);
+            }
+
+            // Only the names sharing the rarest gram need to be checked.
+            var index = grams();
+            var codes = index.codes();
+            var offsets = index.offsets();
+            var postings = index.postings();
+            var width = Math.min(3, infix.length());
+            var rarest = -1;
+            for (var i = 0; i + width <= infix.length(); i++) {
+                var g = Arrays.binarySearch(codes, gram(infix, i, width));
+                if (g < 0) {
+                    return Stream.empty();
+                }
+
+                if (rarest < 0 || offsets[g + 1] - offsets[g] < offsets[rarest + 1] - offsets[rarest]) {
+                    rarest = g;
+                }
+            }
+
+            var candidates = IntStream.builder();
+            var h = -1;
+            for (var p = offsets[rarest]; p < offsets[rarest + 1];) {
+                var delta = 0;
+                var shift = 0;
+                byte b;
+                do {
+                    b = postings[p++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                h += delta;
+                candidates.add(h);
+            }
+
+            return candidates.build()
+                             .filter(c -> contains(c, infix))
+                             .mapToObj(this::name);
+        }
+
+        boolean startsWith(int h, CharSequence prefix) {
+            if (length(h) < prefix.length()) {
+                return false;
+            }
+
+            for (var i = 0; i < prefix.length(); i++) {
+                if (charAt(h, i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        boolean contains(int h, CharSequence infix) {
+            var last = length(h) - infix.length();
+            outer:
+            for (var i = 0; i <= last; i++) {
+                for (var j = 0; j < infix.length(); j++) {
+                    if (charAt(h, i + j) != infix.charAt(j)) {
+                        continue outer;
+                    }
+                }
+
+                return true;
+            }
+
+            return false;
+        }
+
+        private int compare(int h, CharSequence s) {
+            var length = length(h);
+            var n = Math.min(length, s.length());
+            for (var i = 0; i < n; i++) {
+                var c = charAt(h, i) - s.charAt(i);
+                if (c != 0) {
+                    return c;
+                }
+            }
+
+            return length - s.length();
+        }
+
+        private IntStream prefixRange(CharSequence prefix) {
+            var from = lowerBound(prefix);
+            var to = from;
+            while (to < size() && startsWith(to, prefix)) {
+                to++;
+            }
+
+            return IntStream.range(from, to);
+        }
+
+        private int lowerBound(CharSequence prefix) {
+            int lo = 0, hi = size();
+            while (lo < hi) {
+                var mid = (lo + hi) >>> 1;
+                if (compare(mid, prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            return lo;
+        }
+
+        /**
+         * Packs two or three characters into 6 bits each, bigrams flagged
+         * above the 18 bits of a trigram. Characters outside the usual
+         * identifier alphabet share a code, which only widens the candidates
+         * that are then checked with {@link #contains}.
+         */
+        private static int gram(CharSequence s, int i, int width) {
+            var g = width == 2 ? 1 << 18 : code(s.charAt(i + 2));
+            return g | (code(s.charAt(i)) << 12) | (code(s.charAt(i + 1)) << 6);
+        }
+
+        private static int code(char c) {
+            if (c >= 'a' && c <= 'z') return c - 'a';
+            if (c >= 'A' && c <= 'Z') return 26 + c - 'A';
+            if (c >= '0' && c <= '9') return 52 + c - '0';
+            if (c == '_') return 62;
+            return 63;
+        }
+
+        private static int writeVarint(byte[] buf, int pos, int value) {
+            while ((value & ~0x7f) != 0) {
+                buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+            return pos;
+        }
+
+        // String object plus its compact byte[], 8-byte aligned.
+        private static long stringFootprint(String s) {
+            return 24 + ((16 + s.length() + 7) & ~7);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.andirady.jlangd;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Persistent index of the type names contained in each jar of a classpath
+ * (and in the runtime image). Entries are keyed by the jar path, its size and
+ * its last modified time, so only the jars that changed need to be scanned
+ * again. The index file is memory-mapped and an entry is only decoded when
+ * its jar is requested.
+ */
+final class TypeNameIndex {
+
+    private static final Logger LOG = Logger.getLogger(TypeNameIndex.class.getName());
+    private static final int MAGIC = 0x4a4c5449; // JLTI
+    private static final int VERSION = 1;
+
+    record Key(String path, long size, long lastModified) {
+
+        static Key of(Path path) {
+            try {
+                var attrs = Files.readAttributes(path, java.nio.file.attribute.BasicFileAttributes.class);
+                return new Key(path.toAbsolutePath().toString(), attrs.size(), attrs.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private record Entry(Key key, ByteBuffer body, List<String> names) {
+
+        List<String> decode() {
+            if (names != null) {
+                return names;
+            }
+
+            var buf = body.duplicate();
+            var count = buf.getInt();
+            var out = new ArrayList<String>(count);
+            for (var i = 0; i < count; i++) {
+                out.add(readString(buf));
+            }
+
+            return Collections.unmodifiableList(out);
+        }
+    }
+
+    static TypeNameIndex open(Path file) {
+        var index = new TypeNameIndex(file);
+        if (file == null || !Files.exists(file)) {
+            return index;
+        }
+
+        var t0 = System.currentTimeMillis();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            index.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            LOG.fine(() -> "Mapped " + index.entries.size() + " entries from " + file + " in "
+                         + (System.currentTimeMillis() - t0) + " ms");
+        } catch (IOException | BufferUnderflowException | IllegalStateException e) {
+            LOG.log(Level.WARNING, "Ignoring unreadable type index " + file, e);
+            index.entries.clear();
+        }
+
+        return index;
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private boolean dirty;
+
+    private TypeNameIndex(Path file) {
+        this.file = file;
+        this.entries = new HashMap<>();
+    }
+
+    private void read(MappedByteBuffer buf) {
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new IllegalStateException("Unsupported type index format");
+        }
+
+        var count = buf.getInt();
+        for (var i = 0; i < count; i++) {
+            var key = new Key(readString(buf), buf.getLong(), buf.getLong());
+            var length = buf.getInt();
+            var body = buf.slice(buf.position(), length);
+            buf.position(buf.position() + length);
+            entries.put(key.path(), new Entry(key, body, null));
+        }
+    }
+
+    synchronized Optional<List<String>> get(Key key) {
+        var entry = entries.get(key.path());
+        if (entry == null || !entry.key().equals(key)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(entry.decode());
+    }
+
+    /**
+     * Records the names of the jar, to be written by {@link #save()}. Without
+     * a file there is nothing to write them to, and the loaded segments of
+     * the catalogue already hold them, so they are not kept.
+     */
+    synchronized void put(Key key, List<String> names) {
+        if (file == null) {
+            return;
+        }
+
+        entries.put(key.path(), new Entry(key, null, List.copyOf(names)));
+        dirty = true;
+    }
+
+    synchronized boolean contains(Key key) {
+        var entry = entries.get(key.path());
+        return entry != null && entry.key().equals(key);
+    }
+
+    /**
+     * Writes the index back to disk if any entry was added or replaced.
+     */
+    synchronized void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+
+        var t0 = System.currentTimeMillis();
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (var entry : entries.values()) {
+                var key = entry.key();
+                writeString(out, key.path());
+                out.writeLong(key.size());
+                out.writeLong(key.lastModified());
+
+                if (entry.body() != null) {
+                    var body = entry.body().duplicate();
+                    var bytes = new byte[body.remaining()];
+                    body.get(bytes);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                } else {
+                    var body = new ByteArrayOutputStream();
+                    var bodyOut = new DataOutputStream(body);
+                    bodyOut.writeInt(entry.names().size());
+                    for (var name : entry.names()) {
+                        writeString(bodyOut, name);
+                    }
+                    out.writeInt(body.size());
+                    body.writeTo(out);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to write type index " + file, e);
+            return;
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to replace type index " + file, e);
+            return;
+        }
+
+        // Map the new file so the entries written from memory no longer hold
+        // on to their names.
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            entries.clear();
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | BufferUnderflowException | IllegalStateException e) {
+            LOG.log(Level.WARNING, "Failed to map type index " + file, e);
+        }
+
+        LOG.fine(() -> "Saved " + entries.size() + " entries to " + file + " in "
+                     + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    private static String readString(ByteBuffer buf) {
+        var bytes = new byte[Short.toUnsignedInt(buf.getShort())];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
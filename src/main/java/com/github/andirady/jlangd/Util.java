@@ -6,13 +6,18 @@ import com.sun.source.tree.LineMap;
 
 public final class Util {
 
+    /**
+     * The LSP position of an offset. The character is the distance from the
+     * start of the line in UTF-16 code units, whether or not the line map
+     * expands tabs.
+     */
     static Position encodePosition(LineMap lineMap, long pos) {
-        return new Position((int) lineMap.getLineNumber(pos) - 1,
-                            (int) lineMap.getColumnNumber(pos) - 1);
+        var line = lineMap.getLineNumber(pos);
+        return new Position((int) line - 1, (int) (pos - lineMap.getStartPosition(line)));
     }
     
     static int decodePosition(LineMap lineMap, Position position) {
-        return (int) lineMap.getPosition(position.getLine() + 1L, position.getCharacter() + 1L);
+        return (int) (lineMap.getStartPosition(position.getLine() + 1L) + position.getCharacter());
     }
 
 }
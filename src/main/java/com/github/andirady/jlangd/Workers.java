@@ -0,0 +1,192 @@
+package com.github.andirady.jlangd;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.logging.*;
+
+/**
+ * The executors the server runs its work on. Each has its own named
+ * threads and bounded queue, so a long compilation does not hold up the
+ * requests the user is waiting for.
+ * <ul>
+ * <li>{@link #INTERACTIVE} hover, completion, definition, code actions and
+ * rename.
+ * <li>{@link #COMPILATION} diagnoses, compiles and the unused symbol pass.
+ * <li>{@link #BUILD} the groups of sources a compile on save splits into,
+ * submitted only by the compile holding the project lock.
+ * <li>{@link #INDEXING} scanning the classpath for type names and parsing
+ * the sources of the workspace, on low priority threads.
+ * <li>{@link #NOTIFICATION} messages to the client, one at a time and in
+ * order.
+ * </ul>
+ * With {@code --virtual.threads true} the interactive and indexing work runs
+ * on virtual threads instead, one per task, as do the request handlers, see
+ * {@link #newRequestExecutor()}. The compiler stays on the compilation pool,
+ * see {@link #compute(Supplier)}. Notifications stay on a platform thread,
+ * the client connection writes under a monitor which would pin a carrier.
+ */
+final class Workers {
+
+    private static final Logger LOG = Logger.getLogger(Workers.class.getName());
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    static final boolean VIRTUAL = Boolean.getBoolean("virtual.threads");
+
+    static final ExecutorService INTERACTIVE = VIRTUAL
+                                               ? virtual("interactive")
+                                               : new Pool("interactive", Math.max(2, CPUS), 256);
+    static final Pool COMPILATION = new Pool("compilation", 2, 64);
+    static final Pool BUILD = new Pool("build", CPUS, 64);
+    static final ExecutorService INDEXING = VIRTUAL
+                                            ? virtual("indexing")
+                                            : new Pool("indexing", Math.max(1, CPUS / 2), 16, Thread.MIN_PRIORITY);
+    static final Pool NOTIFICATION = new Pool("notification", 1, 1024);
+
+    /**
+     * Runs a task on the calling thread. For work fanned out by a request
+     * that is already on an interactive thread, the javac task it reads must
+     * not be used by two threads at once anyway.
+     */
+    static final Executor DIRECT = Runnable::run;
+
+    /**
+     * A fixed size pool that keeps track of how deep its queue got.
+     */
+    static final class Pool extends ThreadPoolExecutor {
+
+        private final String name;
+        private final AtomicInteger peakQueued = new AtomicInteger();
+        private final AtomicLong rejected = new AtomicLong();
+
+        Pool(String name, int threads, int capacity) {
+            this(name, threads, capacity, Thread.NORM_PRIORITY);
+        }
+
+        Pool(String name, int threads, int capacity, int priority) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(capacity), daemon(name, priority));
+            this.name = name;
+            setRejectedExecutionHandler((r, pool) -> {
+                rejected.incrementAndGet();
+                LOG.warning(() -> "Rejected a task, " + this);
+                throw new RejectedExecutionException(name + " queue is full");
+            });
+        }
+
+        private static ThreadFactory daemon(String name, int priority) {
+            var count = new AtomicInteger();
+            return r -> {
+                var t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(priority);
+                return t;
+            };
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(command);
+            var queued = getQueue().size();
+            if (queued > peakQueued.getAndAccumulate(queued, Math::max)) {
+                LOG.fine(() -> "Queue of " + name + " reached " + queued);
+            }
+        }
+
+        int queued() {
+            return getQueue().size();
+        }
+
+        int peakQueued() {
+            return peakQueued.get();
+        }
+
+        long rejected() {
+            return rejected.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d active, %d queued (peak %d), %d completed, %d rejected",
+                                 name, getActiveCount(), queued(), peakQueued(), getCompletedTaskCount(), rejected());
+        }
+    }
+
+    private static ExecutorService virtual(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    /**
+     * The executor the connection reads and dispatches messages with, or
+     * null for the default of the launcher.
+     */
+    static ExecutorService newRequestExecutor() {
+        return VIRTUAL ? virtual("request") : null;
+    }
+
+    /**
+     * Runs compiler work. On a virtual thread it is handed to the compilation
+     * pool and awaited, so CPU bound javac work is bounded by that pool
+     * instead of occupying the carriers that serve the requests.
+     */
+    static <T> T compute(Supplier<T> work) {
+        if (!Thread.currentThread().isVirtual()) {
+            return work.get();
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(work, COMPILATION).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+
+            throw e;
+        }
+    }
+
+    static List<ExecutorService> all() {
+        return List.of(INTERACTIVE, COMPILATION, BUILD, INDEXING, NOTIFICATION);
+    }
+
+    /**
+     * Stops taking new work and waits for the work already submitted, the
+     * notifications last so the results of that work still reach the client.
+     */
+    static void shutdown() {
+        all().forEach(p -> LOG.info(p::toString));
+        shutdown(all(), SHUTDOWN_TIMEOUT_MS);
+    }
+
+    /**
+     * Shuts the pools down together and waits for them all within the one
+     * timeout, interrupting those still running at its end. The last pool is
+     * shut down only once the others are done, or the timeout is up.
+     */
+    static void shutdown(List<ExecutorService> pools, long timeoutMs) {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        var others = pools.subList(0, pools.size() - 1);
+        others.forEach(ExecutorService::shutdown);
+        others.forEach(p -> awaitTermination(p, deadline));
+
+        var last = pools.get(pools.size() - 1);
+        last.shutdown();
+        awaitTermination(last, deadline);
+    }
+
+    private static void awaitTermination(ExecutorService pool, long deadline) {
+        try {
+            if (!pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                LOG.warning(() -> "Interrupting " + pool);
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Workers() {
+    }
+}
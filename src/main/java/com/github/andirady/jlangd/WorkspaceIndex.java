@@ -0,0 +1,465 @@
+package com.github.andirady.jlangd;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import java.util.stream.*;
+import javax.tools.*;
+import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+
+/**
+ * The types and members declared by the sources under the source
+ * directories of a project, so going to a definition or querying the
+ * workspace symbols does not need a compilation. The sources are only
+ * parsed, in the background on the indexing pool, and parsed again when the
+ * file watcher sees them change. An open source that was edited since it
+ * was indexed is parsed again when looked up.
+ */
+final class WorkspaceIndex implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WorkspaceIndex.class.getName());
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+    private static final int BATCH = 64;
+    private static final long DISK = -1;
+
+    /**
+     * A declaration. The container of a type is its package, or its
+     * enclosing type, the one of a member is its type. The parameters of a
+     * method are their types as written, without type arguments and
+     * qualifiers.
+     */
+    record Symbol(String name, SymbolKind kind, String container, List<String> parameters, Location location) {
+
+        String qualifiedName() {
+            return container.isEmpty() ? name : container + "." + name;
+        }
+
+        boolean isType() {
+            return switch (kind) {
+                case Class, Interface, Enum, Struct -> true;
+                default -> false;
+            };
+        }
+
+        WorkspaceSymbol toWorkspaceSymbol() {
+            return new WorkspaceSymbol(name, kind, Either.forLeft(location), container);
+        }
+
+        static String simpleType(String type) {
+            var simple = type.replaceAll("<.*>", "").replace("...", "[]");
+            var array = simple.indexOf('[');
+            return simple.substring(simple.lastIndexOf('.', array < 0 ? simple.length() : array) + 1);
+        }
+    }
+
+    /**
+     * The symbols of a source, and the version of the open source they were
+     * parsed from, {@link #DISK} when read from the disk.
+     */
+    private record Indexed(long version, List<Symbol> symbols) {}
+
+    private final Project project;
+    private final Charset charset;
+    private final JavaFileManager fileManager;
+    private final Map<String, Indexed> files = new ConcurrentHashMap<>();
+    // The source declaring each type, by qualified name.
+    private final Map<String, String> types = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watched = new ConcurrentHashMap<>();
+    private WatchService watcher;
+
+    WorkspaceIndex(Project project, Charset charset) {
+        this.project = project;
+        this.charset = charset;
+        this.fileManager = new SynchronizedFileManager(COMPILER.getStandardFileManager(null, null, charset));
+    }
+
+    /**
+     * Parses every source under the source directories and starts watching
+     * them. The sources are parsed in batches, by as many threads as the
+     * indexing pool has. Completes once all were parsed.
+     */
+    CompletableFuture<Void> start() {
+        var t0 = System.currentTimeMillis();
+        var queue = new ConcurrentLinkedQueue<Path>();
+        try {
+            watcher = project.path().getFileSystem().newWatchService();
+            for (var dir : project.srcDirs().filter(Files::isDirectory).toList()) {
+                queue.addAll(watch(dir));
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Thread.ofVirtual().name("workspace-watcher").start(this::watchLoop);
+
+        var workers = Workers.INDEXING instanceof ThreadPoolExecutor pool ? pool.getMaximumPoolSize() : 4;
+        var total = queue.size();
+        var draining = new ArrayList<CompletableFuture<Void>>(workers);
+        try {
+            for (var i = 0; i < workers; i++) {
+                draining.add(CompletableFuture.runAsync(() -> drain(queue), Workers.INDEXING));
+            }
+        } catch (RejectedExecutionException e) {
+            // The queue is shared, the workers already taken drain all of it.
+            if (draining.isEmpty()) {
+                return CompletableFuture.failedFuture(e);
+            }
+
+            LOG.fine(() -> "Indexing " + project.path() + " with " + draining.size() + " workers, the queue is full");
+        }
+
+        return CompletableFuture.allOf(draining.toArray(CompletableFuture[]::new))
+                                .thenRun(() -> LOG.info(() -> "Indexed " + total + " sources in "
+                                                              + (System.currentTimeMillis() - t0) + " ms"));
+    }
+
+    private void drain(Queue<Path> queue) {
+        var batch = new ArrayList<Path>(BATCH);
+        for (var path = queue.poll(); path != null; path = queue.poll()) {
+            batch.add(path);
+            if (batch.size() == BATCH) {
+                index(batch);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            index(batch);
+        }
+    }
+
+    /**
+     * Registers the directory and the ones below it with the watcher, and
+     * returns the sources found. Hidden directories are skipped. A directory
+     * that cannot be watched is still indexed.
+     */
+    private List<Path> watch(Path dir) throws IOException {
+        var sources = new ArrayList<Path>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                if (!path.equals(dir) && path.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                try {
+                    var key = path.register(watcher,
+                                            StandardWatchEventKinds.ENTRY_CREATE,
+                                            StandardWatchEventKinds.ENTRY_DELETE,
+                                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    watched.put(key, path);
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Cannot watch " + path, e);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (path.toString().endsWith(".java")) {
+                    sources.add(path);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return sources;
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                var key = watcher.take();
+                var dir = watched.get(key);
+                var changed = new ArrayList<Path>();
+                for (var event : key.pollEvents()) {
+                    if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        continue;
+                    }
+
+                    var path = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        remove(path);
+                    } else if (Files.isDirectory(path)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            changed.addAll(watch(path));
+                        }
+                    } else if (path.toString().endsWith(".java")) {
+                        changed.add(path);
+                    }
+                }
+
+                if (!key.reset()) {
+                    watched.remove(key);
+                }
+
+                if (!changed.isEmpty()) {
+                    LOG.fine(() -> "Indexing changed " + changed);
+                    try {
+                        Workers.INDEXING.execute(() -> index(changed));
+                    } catch (RejectedExecutionException e) {
+                        LOG.log(Level.WARNING, "Dropped changes to index", e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOG.fine("Stopped watching");
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Stopped watching", e);
+        }
+    }
+
+    private void remove(Path path) {
+        var prefix = path.toUri().toString();
+        for (var uri : List.copyOf(files.keySet())) {
+            // The sources in a deleted directory are gone too.
+            if (uri.equals(prefix) || uri.startsWith(prefix.endsWith("/") ? prefix : prefix + "/")) {
+                put(uri, null);
+            }
+        }
+    }
+
+    /**
+     * Parses the sources, an open source from its current text.
+     */
+    private void index(List<Path> paths) {
+        var units = new ArrayList<JavaSource>();
+        var versions = new HashMap<String, Long>();
+        for (var path : paths) {
+            var uri = path.toUri();
+            var open = project.getSource(uri.toString());
+            try {
+                if (open.isPresent()) {
+                    units.add(open.get());
+                    versions.put(uri.toString(), open.get().version());
+                } else if (Files.isRegularFile(path)) {
+                    units.add(new JavaSource(uri, Files.readString(path, charset)));
+                    versions.put(uri.toString(), DISK);
+                }
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Failed to read " + path, e);
+            }
+        }
+
+        if (units.isEmpty()) {
+            return;
+        }
+
+        try {
+            var task = (JavacTask) COMPILER.getTask(null, fileManager, d -> {}, List.of("-proc:none"), null, units);
+            var positions = Trees.instance(task).getSourcePositions();
+            for (var tree : task.parse()) {
+                var uri = tree.getSourceFile().toUri().toString();
+                put(uri, new Indexed(versions.get(uri), symbols(tree, positions, uri)));
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to index " + paths, e);
+        }
+    }
+
+    private synchronized void put(String uri, Indexed indexed) {
+        var old = indexed != null ? files.put(uri, indexed) : files.remove(uri);
+        if (old != null) {
+            old.symbols().stream().filter(Symbol::isType).forEach(s -> types.remove(s.qualifiedName(), uri));
+        }
+
+        if (indexed != null) {
+            indexed.symbols().stream().filter(Symbol::isType).forEach(s -> types.put(s.qualifiedName(), uri));
+        }
+    }
+
+    private static List<Symbol> symbols(CompilationUnitTree tree, SourcePositions positions, String uri) {
+        var symbols = new ArrayList<Symbol>();
+        CharSequence text;
+        try {
+            text = tree.getSourceFile().getCharContent(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        var pkg = tree.getPackageName() != null ? tree.getPackageName().toString() : "";
+        new TreeScanner<Void, String>() {
+
+            private Location location(Tree node, Tree before, String name) {
+                var from = Math.max(positions.getStartPosition(tree, node), positions.getEndPosition(tree, before));
+                var start = nameAt(text, from, name);
+                var lineMap = tree.getLineMap();
+                return new Location(uri, new Range(Util.encodePosition(lineMap, start),
+                                                   Util.encodePosition(lineMap, start + name.length())));
+            }
+
+            @Override
+            public Void visitClass(ClassTree node, String container) {
+                var name = node.getSimpleName().toString();
+                if (name.isEmpty()) {
+                    // Anonymous classes are not indexed.
+                    return null;
+                }
+
+                var kind = switch (node.getKind()) {
+                    case INTERFACE, ANNOTATION_TYPE -> SymbolKind.Interface;
+                    case ENUM -> SymbolKind.Enum;
+                    case RECORD -> SymbolKind.Struct;
+                    default -> SymbolKind.Class;
+                };
+                var type = new Symbol(name, kind, container, List.of(), location(node, node.getModifiers(), name));
+                symbols.add(type);
+                for (var member : node.getMembers()) {
+                    if (member instanceof VariableTree v
+                        && v.getInitializer() instanceof NewClassTree n
+                        && n.getIdentifier().toString().equals(name)
+                        && kind == SymbolKind.Enum) {
+                        var constant = v.getName().toString();
+                        symbols.add(new Symbol(constant,
+                                               SymbolKind.EnumMember,
+                                               type.qualifiedName(),
+                                               List.of(),
+                                               location(v, v.getModifiers(), constant)));
+                    } else {
+                        scan(member, type.qualifiedName());
+                    }
+                }
+
+                return null;
+            }
+
+            @Override
+            public Void visitMethod(MethodTree node, String container) {
+                var constructor = node.getName().contentEquals("<init>");
+                var name = constructor
+                           ? container.substring(container.lastIndexOf('.') + 1)
+                           : node.getName().toString();
+                var parameters = node.getParameters()
+                                     .stream()
+                                     .map(p -> Symbol.simpleType(p.getType().toString()))
+                                     .toList();
+                var before = constructor || node.getReturnType() == null ? node.getModifiers() : node.getReturnType();
+                symbols.add(new Symbol(name,
+                                       constructor ? SymbolKind.Constructor : SymbolKind.Method,
+                                       container,
+                                       parameters,
+                                       location(node, before, name)));
+                return null;
+            }
+
+            @Override
+            public Void visitVariable(VariableTree node, String container) {
+                var name = node.getName().toString();
+                symbols.add(new Symbol(name, SymbolKind.Field, container, List.of(), location(node, node.getType(), name)));
+                return null;
+            }
+
+            @Override
+            public Void visitBlock(BlockTree node, String container) {
+                return null;
+            }
+        }.scan(tree.getTypeDecls(), pkg);
+
+        return symbols;
+    }
+
+    /**
+     * The position of the name as a whole word at or after the position, or
+     * the position itself if it is not there.
+     */
+    private static long nameAt(CharSequence text, long from, String name) {
+        var s = text.toString();
+        for (var i = s.indexOf(name, (int) Math.max(0, from)); i >= 0; i = s.indexOf(name, i + 1)) {
+            var end = i + name.length();
+            if ((i == 0 || !Character.isJavaIdentifierPart(s.charAt(i - 1)))
+                && (end == s.length() || !Character.isJavaIdentifierPart(s.charAt(end)))) {
+                return i;
+            }
+        }
+
+        return Math.max(0, from);
+    }
+
+    /**
+     * The symbols of the source, parsed again first if it is open and was
+     * edited since it was indexed.
+     */
+    private List<Symbol> symbolsOf(String uri) {
+        var indexed = files.get(uri);
+        var open = project.getSource(uri);
+        if (open.isPresent() && (indexed == null || indexed.version() != open.get().version())) {
+            index(List.of(Path.of(open.get().toUri())));
+            indexed = files.get(uri);
+        }
+
+        return indexed != null ? indexed.symbols() : List.of();
+    }
+
+    Optional<Location> findType(String qualifiedName) {
+        var uri = types.get(qualifiedName);
+        if (uri == null) {
+            return Optional.empty();
+        }
+
+        return symbolsOf(uri).stream()
+                             .filter(s -> s.isType() && s.qualifiedName().equals(qualifiedName))
+                             .map(Symbol::location)
+                             .findFirst();
+    }
+
+    /**
+     * The method or constructor of the type, the only one of that name and
+     * number of parameters, or else the one whose parameter types match.
+     */
+    Optional<Location> findMethod(String typeName, String name, List<String> parameterTypes) {
+        var uri = types.get(typeName);
+        if (uri == null) {
+            return Optional.empty();
+        }
+
+        var parameters = parameterTypes.stream().map(Symbol::simpleType).toList();
+        var candidates = symbolsOf(uri).stream()
+                                       .filter(s -> s.container().equals(typeName)
+                                                    && s.name().equals(name)
+                                                    && s.parameters().size() == parameters.size())
+                                       .toList();
+        if (candidates.size() == 1) {
+            return Optional.of(candidates.get(0).location());
+        }
+
+        return candidates.stream()
+                         .filter(s -> s.parameters().equals(parameters))
+                         .map(Symbol::location)
+                         .findFirst();
+    }
+
+    /**
+     * The symbols whose name contains the query, ignoring case.
+     */
+    Stream<Symbol> query(String query) {
+        var q = query.toLowerCase(Locale.ROOT);
+        return files.values()
+                    .stream()
+                    .flatMap(f -> f.symbols().stream())
+                    .filter(s -> s.name().toLowerCase(Locale.ROOT).contains(q));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+
+        fileManager.close();
+    }
+}
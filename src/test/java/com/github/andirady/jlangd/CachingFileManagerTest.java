@@ -0,0 +1,91 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.jar.*;
+import javax.tools.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+class CachingFileManagerTest {
+
+    private static final Set<JavaFileObject.Kind> CLASSES = EnumSet.of(JavaFileObject.Kind.CLASS);
+
+    @TempDir
+    Path dir;
+
+    private final StandardJavaFileManager standard =
+            ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null);
+    private final CachingFileManager fileManager = new CachingFileManager(standard);
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileManager.close();
+    }
+
+    private void jar(Path jar, Map<String, byte[]> entries) throws IOException {
+        try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (var e : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(e.getKey()));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    private List<JavaFileObject> list(String packageName) throws IOException {
+        var files = new ArrayList<JavaFileObject>();
+        fileManager.list(StandardLocation.CLASS_PATH, packageName, CLASSES, false).forEach(files::add);
+        return files;
+    }
+
+    private static byte[] read(JavaFileObject file) throws IOException {
+        try (var in = file.openInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void should_serve_an_archive_from_memory_until_it_changed() throws Exception {
+        var jar = dir.resolve("lib.jar");
+        jar(jar, Map.of("p/A.class", new byte[] {1}));
+        standard.setLocationFromPaths(StandardLocation.CLASS_PATH, List.of(jar));
+
+        var files = list("p");
+        assertEquals(1, files.size());
+        assertEquals("p.A", fileManager.inferBinaryName(StandardLocation.CLASS_PATH, files.get(0)));
+        assertArrayEquals(new byte[] {1}, read(files.get(0)));
+        assertSame(files.get(0), list("p").get(0));
+        assertFalse(fileManager.refresh());
+
+        jar(jar, Map.of("p/A.class", new byte[] {2}, "p/B.class", new byte[] {3}));
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 2000));
+        assertTrue(fileManager.refresh());
+
+        var changed = list("p");
+        assertEquals(2, changed.size());
+        var a = changed.stream()
+                       .filter(f -> fileManager.inferBinaryName(StandardLocation.CLASS_PATH, f).equals("p.A"))
+                       .findFirst()
+                       .orElseThrow();
+        assertArrayEquals(new byte[] {2}, read(a));
+    }
+
+    @Test
+    void should_list_a_directory_again_once_it_changed() throws Exception {
+        var pkg = Files.createDirectories(dir.resolve("classes/p"));
+        Files.write(pkg.resolve("A.class"), new byte[] {1});
+        standard.setLocationFromPaths(StandardLocation.CLASS_PATH, List.of(dir.resolve("classes")));
+
+        assertEquals(1, list("p").size());
+
+        Files.write(pkg.resolve("B.class"), new byte[] {2});
+        Files.setLastModifiedTime(pkg, FileTime.fromMillis(Files.getLastModifiedTime(pkg).toMillis() + 2000));
+        assertEquals(2, list("p").size());
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.util.*;
+import javax.lang.model.element.*;
+import javax.tools.*;
+
+import org.junit.jupiter.api.*;
+
+class CompilerSessionTest {
+
+    private static final StandardJavaFileManager FILE_MANAGER =
+            ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null);
+
+    private final CompilerSession session = new CompilerSession(FILE_MANAGER);
+
+    /**
+     * Compiles a class and returns the symbol of {@code String} it completed,
+     * which is the same object only within the same compiler context.
+     */
+    private TypeElement compile(CompilerSession.Lease lease) throws Exception {
+        var task = lease.task();
+        task.parse();
+        task.analyze();
+        return task.getElements().getTypeElement("java.lang.String");
+    }
+
+    private CompilerSession.Lease open(String name) {
+        var source = new JavaSource(URI.create("file:///" + name + ".java"),
+                                    "class " + name + " { String s = \"\"; }");
+        return session.open(new DiagnosticCollector<>(), List.of(), List.of(source));
+    }
+
+    @Test
+    void should_reuse_the_context_of_a_released_task() throws Exception {
+        var first = open("A");
+        var string = compile(first);
+        first.release();
+        first.returned().join();
+
+        var second = open("A");
+        try {
+            assertSame(string, compile(second));
+            assertNotNull(second.task().getElements().getTypeElement("A"));
+        } finally {
+            second.release();
+        }
+    }
+
+    @Test
+    void should_not_reuse_the_context_of_a_held_or_discarded_task() throws Exception {
+        var held = open("A");
+        var string = compile(held);
+        var other = open("B");
+        try {
+            assertNotSame(string, compile(other));
+        } finally {
+            other.discard();
+            other.release();
+            held.release();
+        }
+
+        assertFalse(held.retain());
+        held.returned().join();
+        other.returned().join();
+        var reused = open("C");
+        try {
+            assertSame(string, compile(reused));
+        } finally {
+            reused.release();
+        }
+    }
+
+    @Test
+    void should_not_reuse_a_context_after_invalidation() throws Exception {
+        var first = open("A");
+        var string = compile(first);
+        first.release();
+        first.returned().join();
+        session.invalidate();
+
+        var second = open("A");
+        try {
+            assertNotSame(string, compile(second));
+        } finally {
+            second.release();
+        }
+    }
+}
@@ -3,15 +3,22 @@ package com.github.andirady.jlangd;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
 
 import javax.tools.ToolProvider;
 
+import org.eclipse.lsp4j.*;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.sun.source.util.JavacTask;
 
 class CompletionTest {
+
+    @TempDir
+    Path dir;
     
     @Test
     void should_suggest_types_when_non_static_import() throws IOException {
@@ -28,4 +35,135 @@ class CompletionTest {
         var task = (JavacTask) javac.getTask(null, fmgr, null, null, null, List.of(src.source));
         var tree = task.parse().iterator().next();
     }
+
+    private static final String HELLO = """
+                class A {
+                    /** Says hello. */
+                    @Deprecated
+                    void hello(int count) {}
+                    void help() {}
+                    int helpful;
+                    void run() {
+                        int count = 1;
+                        hel
+                    }
+                }
+                """;
+
+    private Project newProject() {
+        var project = new Project(dir, StandardCharsets.UTF_8, List.of(), List.of(), dir, null);
+        project.setDiagnosticsConsumer(d -> {});
+        return project;
+    }
+
+    private static List<String> labels(CompletionList list) {
+        return list.getItems().stream().map(CompletionItem::getLabel).toList();
+    }
+
+    @Test
+    void should_rank_the_suggestions_and_resolve_the_documentation_later() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        project.addJavaSource(uri, HELLO);
+
+        var service = new SuggestCompletion(project, uri);
+        var list = service.complete(new Position(8, 11));
+
+        // Only the members were looked at, a longer prefix may match types.
+        assertTrue(list.isIncomplete());
+        var items = list.getItems();
+        assertEquals(List.of("hello", "help", "helpful"), labels(list));
+        assertEquals(List.of("00000", "00001", "00002"), items.stream().map(CompletionItem::getSortText).toList());
+
+        var hello = items.get(0);
+        assertEquals("hello(count)", hello.getTextEdit().getLeft().getNewText());
+        assertNull(hello.getDocumentation());
+        assertNull(hello.getTags());
+
+        service.resolve(hello);
+        assertEquals("Says hello.", hello.getDocumentation().getLeft());
+        assertEquals(List.of(CompletionItemTag.Deprecated), hello.getTags());
+        project.close();
+    }
+
+    @Test
+    void should_filter_the_previous_suggestions_while_the_identifier_is_typed() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, HELLO);
+        new SuggestCompletion(project, uri).complete(new Position(8, 11));
+        var session = project.completionSession(uri);
+
+        source.patch(new Range(new Position(8, 11), new Position(8, 11)), "pf");
+        var list = new SuggestCompletion(project, uri).complete(new Position(8, 13));
+        assertSame(session, project.completionSession(uri));
+        assertEquals(List.of("helpful"), labels(list));
+
+        // Removing what was typed after the first completion still applies.
+        source.patch(new Range(new Position(8, 11), new Position(8, 13)), "");
+        list = new SuggestCompletion(project, uri).complete(new Position(8, 11));
+        assertSame(session, project.completionSession(uri));
+        assertEquals("hello(count)", list.getItems().get(0).getTextEdit().getLeft().getNewText());
+
+        source.patch(new Range(new Position(7, 17), new Position(7, 17)), "0");
+        list = new SuggestCompletion(project, uri).complete(new Position(8, 11));
+        assertNotSame(session, project.completionSession(uri));
+        assertEquals(List.of("hello", "help", "helpful"), labels(list));
+        project.close();
+    }
+
+    @Test
+    void should_suggest_the_types_once_the_identifier_no_longer_matches_a_local() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, """
+                class A {
+                    void run() {
+                        int s = 1;
+                        S
+                    }
+                }
+                """);
+        var list = new SuggestCompletion(project, uri).complete(new Position(3, 9));
+        assertTrue(labels(list).contains("s"));
+        assertTrue(list.isIncomplete());
+
+        source.patch(new Range(new Position(3, 9), new Position(3, 9)), "tri");
+        list = new SuggestCompletion(project, uri).complete(new Position(3, 12));
+        assertTrue(labels(list).containsAll(List.of("String", "StringBuffer")), labels(list).toString());
+        assertFalse(labels(list).contains("s"));
+        project.close();
+    }
+
+    @Test
+    void should_filter_the_suggestions_found_in_an_incremental_result() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, """
+                class A {
+                    void help() {}
+                    int helpful() {
+                        return 1;
+                    }
+                    void run() {
+                        int x = 0;
+                    }
+                }
+                """);
+        project.diagnose(uri);
+        source.patch(new Range(new Position(6, 16), new Position(6, 17)), "hel");
+        project.diagnose(uri);
+        try (var result = project.taskForUri(uri, new Position(6, 19))) {
+            assertFalse(result.pruned().isEmpty());
+        }
+
+        new SuggestCompletion(project, uri).complete(new Position(6, 19));
+        var session = project.completionSession(uri);
+        source.patch(new Range(new Position(6, 19), new Position(6, 19)), "p");
+        var list = new SuggestCompletion(project, uri).complete(new Position(6, 20));
+
+        assertSame(session, project.completionSession(uri));
+        assertEquals(List.of("help", "helpful"), labels(list));
+        project.close();
+    }
 }
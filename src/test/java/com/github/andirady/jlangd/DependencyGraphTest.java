@@ -0,0 +1,61 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.source.util.*;
+import java.net.URI;
+import java.util.*;
+import javax.tools.*;
+
+import org.junit.jupiter.api.*;
+
+class DependencyGraphTest {
+
+    private final DependencyGraph graph = new DependencyGraph();
+
+    private void record(String... sources) throws Exception {
+        var units = new ArrayList<JavaSource>();
+        for (var source : sources) {
+            // Named after the class it declares first.
+            var name = source.split(" ")[1];
+            units.add(new JavaSource(URI.create("file:///" + name + ".java"), source));
+        }
+
+        var task = (JavacTask) ToolProvider.getSystemJavaCompiler()
+                                           .getTask(null, null, new DiagnosticCollector<>(), null, null, units);
+        var trees = task.parse();
+        task.analyze();
+        trees.forEach(t -> graph.record(t, Trees.instance(task)));
+    }
+
+    @Test
+    void should_find_the_sources_referencing_a_declared_type() throws Exception {
+        record("class A { static class N {} void f() {} }",
+               "class B extends A { void g() { f(); } }",
+               "class C { A.N n; }",
+               "class D { String s; }");
+        record("class E { Missing m; }");
+        record("class Missing {}");
+
+        assertEquals(Set.of("file:///B.java", "file:///C.java"), graph.dependents("file:///A.java"));
+        assertEquals(Set.of(), graph.dependents("file:///D.java"));
+        assertEquals(Set.of("file:///E.java"), graph.dependents("file:///Missing.java"));
+    }
+
+    @Test
+    void should_group_the_sources_referencing_each_other() throws Exception {
+        record("class A {}",
+               "class B { A a; }",
+               "class C {}",
+               "class D { C c; }",
+               "class E {}");
+
+        assertEquals(List.of(List.of("file:///A.java", "file:///B.java"),
+                             List.of("file:///C.java", "file:///D.java"),
+                             List.of("file:///E.java")),
+                     graph.groups(List.of("file:///A.java", "file:///B.java", "file:///C.java",
+                                          "file:///D.java", "file:///E.java")));
+        assertEquals(List.of(List.of("file:///A.java", "file:///X.java")),
+                     graph.groups(List.of("file:///A.java", "file:///X.java")));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+
+class DiagnosticsSchedulerTest {
+
+    private static final String URI = "file:///A.java";
+
+    @Test
+    void should_diagnose_once_after_a_burst_of_changes() throws Exception {
+        var calls = new LinkedBlockingQueue<String>();
+        var scheduler = new DiagnosticsScheduler((p, uri) -> calls.add(uri), 100);
+
+        for (var i = 0; i < 20; i++) {
+            scheduler.schedule(null, URI);
+        }
+
+        assertEquals(URI, calls.poll(5, TimeUnit.SECONDS));
+        assertNull(calls.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void should_coalesce_changes_made_while_diagnosing() throws Exception {
+        var started = new LinkedBlockingQueue<Boolean>();
+        var release = new CountDownLatch(1);
+        var latest = new LinkedBlockingQueue<Boolean>();
+        var scheduler = new DiagnosticsScheduler[1];
+        scheduler[0] = new DiagnosticsScheduler((p, uri) -> {
+            started.add(true);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            latest.add(scheduler[0].isLatest(uri));
+        }, 10);
+
+        scheduler[0].schedule(null, URI);
+        assertNotNull(started.poll(5, TimeUnit.SECONDS));
+
+        for (var i = 0; i < 5; i++) {
+            scheduler[0].schedule(null, URI);
+            Thread.sleep(30);
+        }
+        release.countDown();
+
+        assertFalse(latest.poll(5, TimeUnit.SECONDS), "first result is superseded");
+        assertNotNull(started.poll(5, TimeUnit.SECONDS));
+        assertTrue(latest.poll(5, TimeUnit.SECONDS), "follow-up is for the latest version");
+        assertNull(started.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void should_not_diagnose_closed_document() throws Exception {
+        var calls = new LinkedBlockingQueue<String>();
+        var scheduler = new DiagnosticsScheduler((p, uri) -> calls.add(uri), 100);
+
+        scheduler.schedule(null, URI);
+        scheduler.cancel(URI);
+
+        assertNull(calls.poll(300, TimeUnit.MILLISECONDS));
+        assertTrue(scheduler.isLatest(URI));
+    }
+}
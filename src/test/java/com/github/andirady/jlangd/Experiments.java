@@ -78,7 +78,7 @@ public class Experiments {
         var t0 = System.currentTimeMillis();
         var cp = Files.lines(Path.of(System.getProperty("user.dir"), ".classpath.cache")).findFirst();
         
-        var types = LoadTypes.streamTypeNames(cp.orElse(""), cannonName -> cannonName.contains("Compl")).toList();
+        var types = LoadTypes.streamTypeNames(TypeNameIndex.open(null), cp.orElse(""), cannonName -> cannonName.contains("Compl")).toList();
         
         System.out.println("Loaded " + types.size() + " types in " + (System.currentTimeMillis() - t0) + " ms");
       
@@ -88,7 +88,7 @@ public class Experiments {
         t0 = System.currentTimeMillis();
         cp = Files.lines(Path.of(System.getProperty("user.dir"), ".classpath.cache")).findFirst();
         
-        types = LoadTypes.streamTypeNames(cp.orElse(""), cannonName -> cannonName.contains("Compl")).toList();
+        types = LoadTypes.streamTypeNames(TypeNameIndex.open(null), cp.orElse(""), cannonName -> cannonName.contains("Compl")).toList();
         
         System.out.println("Loaded " + types.size() + " types in " + (System.currentTimeMillis() - t0) + " ms");
     }
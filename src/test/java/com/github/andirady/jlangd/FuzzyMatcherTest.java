@@ -0,0 +1,60 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class FuzzyMatcherTest {
+
+    private static int score(String pattern, String name) {
+        return new FuzzyMatcher(pattern).score(name);
+    }
+
+    @Test
+    void should_match_prefixes_camel_humps_and_substrings() {
+        assertEquals(FuzzyMatcher.NO_MATCH, score("HashMapz", "HashMap"));
+        assertEquals(FuzzyMatcher.NO_MATCH, score("xyz", "HashMap"));
+        assertEquals(FuzzyMatcher.NO_MATCH, score("HMz", "HashMap"));
+        assertEquals(FuzzyMatcher.NO_MATCH, score("hpm", "HashMap"));
+
+        assertTrue(score("HashMap", "HashMap") > score("Hash", "HashMap"));
+        assertTrue(score("Hash", "HashMap") > score("hash", "HashMap"));
+        assertTrue(score("hash", "HashMap") > score("HM", "HashMap"));
+        assertTrue(score("HM", "HashMap") > score("hm", "HashMap"));
+        assertTrue(score("hm", "HashMap") > score("Map", "HashMap"));
+        assertTrue(score("Map", "HashMap") > score("map", "HashMap"));
+        assertTrue(score("Map", "HashMap") > score("Map", "ConcurrentHashMap"));
+
+        assertTrue(score("HaMa", "HashMap") >= FuzzyMatcher.CAMEL_HUMPS);
+        assertTrue(score("uRLC", "URLConnection") >= FuzzyMatcher.CAMEL_HUMPS);
+        assertTrue(score("CHM", "ConcurrentHashMap") >= FuzzyMatcher.CAMEL_HUMPS);
+        assertTrue(score("gA", "get_all") >= FuzzyMatcher.CAMEL_HUMPS);
+        assertTrue(score("b64", "Base64") >= FuzzyMatcher.CAMEL_HUMPS);
+    }
+
+    @Test
+    void should_match_everything_with_an_empty_pattern() {
+        var matcher = new FuzzyMatcher("");
+        assertEquals(matcher.score("a"), matcher.score("HashMap"));
+    }
+
+    @Test
+    void should_order_the_catalogue_by_score() {
+        var catalogue = new TypeCatalogue(List.of(
+                new TypeCatalogue.Segment(null, List.of("java.util.HashMap",
+                                                        "java.util.Map",
+                                                        "java.util.concurrent.ConcurrentHashMap",
+                                                        "a.HandlerMethod",
+                                                        "a.Ma")),
+                new TypeCatalogue.Segment(null, List.of("b.MapEntry", "b.Hm"))));
+
+        // The last by the "hM" it contains.
+        assertEquals(List.of("b.Hm", "a.HandlerMethod", "java.util.HashMap",
+                             "java.util.concurrent.ConcurrentHashMap"),
+                     catalogue.matching(new FuzzyMatcher("HM")).toList());
+        assertEquals(List.of("java.util.Map", "b.MapEntry", "java.util.HashMap",
+                             "java.util.concurrent.ConcurrentHashMap"),
+                     catalogue.matching(new FuzzyMatcher("Map")).toList());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.util.*;
+
+import org.eclipse.lsp4j.*;
+import org.junit.jupiter.api.*;
+
+class JavaSourceTest {
+
+    private static void assertLineOffsets(JavaSource source) throws Exception {
+        var text = source.getCharContent(false).toString();
+        var line = 0;
+        assertEquals(0, source.lineOffset(0));
+        for (var i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                assertEquals(i + 1, source.lineOffset(++line));
+            }
+        }
+        var last = line;
+        assertThrows(IndexOutOfBoundsException.class, () -> source.lineOffset(last + 1));
+    }
+
+    @Test
+    void should_update_line_offsets_when_patched() throws Exception {
+        var source = new JavaSource(URI.create("string:///A.java"), """
+                                                                   class A {
+                                                                       void f() {
+                                                                       }
+                                                                   }
+                                                                   """);
+
+        source.patch(new Range(new Position(1, 14), new Position(1, 14)), "\n        int x = 1;\n");
+        assertLineOffsets(source);
+        assertEquals(new Position(2, 8), source.lspPosition(source.lineOffset(2) + 8));
+
+        source.patch(new Range(new Position(1, 4), new Position(4, 5)), "int y;");
+        assertLineOffsets(source);
+        assertEquals("class A {\n    int y;\n}\n", source.getCharContent(false).toString());
+    }
+
+    @Test
+    void should_treat_range_past_the_end_as_the_end() throws Exception {
+        var source = new JavaSource(URI.create("string:///A.java"), "class A {}\n");
+
+        source.patch(new Range(new Position(0, 10), new Position(5, 0)), "");
+
+        assertEquals("class A {}", source.getCharContent(false).toString());
+        assertLineOffsets(source);
+    }
+
+    @Test
+    void should_apply_batched_changes_like_one_by_one() throws Exception {
+        var random = new Random(3);
+        var text = new StringBuilder("class A {\r\n    int x;\n}\n".repeat(50));
+        var source = new JavaSource(URI.create("string:///A.java"), text.toString());
+
+        for (var round = 0; round < 200; round++) {
+            var changes = new ArrayList<TextDocumentContentChangeEvent>();
+            var descending = random.nextBoolean();
+            var line = descending ? LineIndex.of(text).lineCount() - 1 : 0;
+            for (var i = 0; i < 10; i++) {
+                var lines = LineIndex.of(text);
+                line = Math.max(0, Math.min(lines.lineCount() - 1, line + (descending ? -random.nextInt(5) : random.nextInt(5))));
+                var start = new Position(line, random.nextInt(3));
+                var end = new Position(line, start.getCharacter() + random.nextInt(3));
+                var insert = List.of("", "y", "\n", "\r\n", "z\rz").get(random.nextInt(5));
+                var change = random.nextInt(50) == 0
+                           ? new TextDocumentContentChangeEvent("class B {}\n".repeat(20))
+                           : new TextDocumentContentChangeEvent(new Range(start, end), insert);
+                changes.add(change);
+
+                if (change.getRange() == null) {
+                    text.replace(0, text.length(), change.getText());
+                } else {
+                    var from = Math.min(lines.offset(start), text.length());
+                    var to = Math.min(lines.offset(end), text.length());
+                    text.replace(from, to, insert);
+                }
+            }
+
+            source.patch(changes);
+
+            assertEquals(text.toString(), source.getCharContent(false).toString());
+            var expected = LineIndex.of(text);
+            for (var i = 0; i < expected.lineCount(); i++) {
+                assertEquals(expected.lineStart(i), source.lineOffset(i), "round " + round);
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> source.lineOffset(expected.lineCount()));
+        }
+    }
+}
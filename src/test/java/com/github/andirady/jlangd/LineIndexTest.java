@@ -0,0 +1,60 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.eclipse.lsp4j.Position;
+import org.junit.jupiter.api.*;
+
+class LineIndexTest {
+
+    private static List<Integer> starts(LineIndex index) {
+        var starts = new ArrayList<Integer>();
+        for (var i = 0; i < index.lineCount(); i++) {
+            starts.add(index.lineStart(i));
+        }
+
+        return starts;
+    }
+
+    @Test
+    void should_split_lines_at_lf_crlf_and_cr() {
+        var index = LineIndex.of("a\nb\r\nc\rd\r");
+
+        assertEquals(List.of(0, 2, 5, 7, 9), starts(index));
+        assertEquals(new Position(1, 1), index.position(3));
+        assertEquals(new Position(2, 0), index.position(5));
+        assertEquals(7, index.offset(new Position(3, 0)));
+    }
+
+    @Test
+    void should_count_columns_in_utf16_units_without_expanding_tabs() {
+        var text = "class A {\n\t😀 x;\n}";
+        var index = LineIndex.of(text);
+        var pos = text.indexOf('x');
+
+        assertEquals(new Position(1, 4), Util.encodePosition(index, pos));
+        assertEquals(pos, Util.decodePosition(index, new Position(1, 4)));
+        assertEquals(2, index.getLineNumber(pos));
+        assertEquals(5, index.getColumnNumber(pos));
+    }
+
+    @Test
+    void should_match_a_fresh_index_after_random_edits() {
+        var random = new Random(7);
+        var pieces = new String[] { "\n", "\r", "\r\n", "x", "yy", "\n\r", "" };
+        var text = new StringBuilder("a\r\nb\nc\rd\n".repeat(20));
+        var index = LineIndex.of(text);
+
+        for (var i = 0; i < 2_000; i++) {
+            var start = random.nextInt(text.length() + 1);
+            var end = Math.min(text.length(), start + random.nextInt(4));
+            var insert = pieces[random.nextInt(pieces.length)] + pieces[random.nextInt(pieces.length)];
+            text.replace(start, end, insert);
+            index = index.replace(start, end, insert.length(), text);
+
+            assertEquals(starts(LineIndex.of(text)), starts(index), "after edit " + i);
+        }
+    }
+}
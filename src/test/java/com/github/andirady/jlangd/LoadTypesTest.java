@@ -0,0 +1,115 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+class LoadTypesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void should_serve_types_of_all_jars_from_memory_after_first_scan() throws Exception {
+        var a = jar("a.jar", "a/A.class", "a/A$Inner.class", "a/A$1.class", "module-info.class");
+        var b = jar("b.jar", "b/B.class");
+        var classpath = a + ":" + b;
+        var loader = new LoadTypes();
+        var index = TypeNameIndex.open(null);
+
+        var first = loader.typeNames(index, classpath, s -> !s.startsWith("java")).toList();
+        var scans = loader.scanCount();
+        var second = loader.typeNames(index, classpath, s -> !s.startsWith("java")).toList();
+
+        assertTrue(first.containsAll(List.of("a.A", "a.A.Inner", "b.B")), first::toString);
+        assertFalse(first.contains("a.A.1"));
+        assertEquals(first, second);
+        assertEquals(3, scans); // two jars and the runtime image
+        assertEquals(scans, loader.scanCount());
+        // Nothing to save them to, the segments hold the names.
+        assertFalse(index.contains(TypeNameIndex.Key.of(a)));
+    }
+
+    @Test
+    void should_serve_the_same_catalogue_until_its_jars_are_checked_again() throws Exception {
+        var classpath = jar("a.jar", "a/A.class") + ":" + jar("b.jar", "b/B.class");
+        var loader = new LoadTypes();
+        var index = TypeNameIndex.open(null);
+
+        var first = loader.load(index, classpath);
+
+        assertSame(first, loader.load(index, classpath));
+        assertNotSame(first, loader.load(index, jar("c.jar", "c/C.class").toString()));
+    }
+
+    @Test
+    void should_scan_each_jar_once_when_called_concurrently() throws Exception {
+        var classpath = jar("a.jar", "a/A.class") + ":" + jar("b.jar", "b/B.class");
+        var loader = new LoadTypes();
+        var index = TypeNameIndex.open(null);
+        var threads = 8;
+        var start = new CountDownLatch(1);
+        var pool = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<List<String>>>();
+            for (var i = 0; i < threads; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return loader.typeNames(index, classpath, s -> s.length() == 3).toList();
+                }));
+            }
+            start.countDown();
+
+            for (var f : futures) {
+                assertTrue(f.get().containsAll(List.of("a.A", "b.B")));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(3, loader.scanCount());
+    }
+
+    @Test
+    void should_rescan_only_changed_jars_from_persisted_index() throws Exception {
+        var a = jar("a.jar", "a/A.class");
+        var b = jar("b.jar", "b/B.class");
+        var classpath = a + ":" + b;
+        var indexFile = dir.resolve(".types.cache");
+
+        new LoadTypes().typeNames(TypeNameIndex.open(indexFile), classpath, null).toList();
+        assertTrue(Files.exists(indexFile));
+
+        var reloaded = new LoadTypes();
+        var names = reloaded.typeNames(TypeNameIndex.open(indexFile), classpath, null).toList();
+        assertTrue(names.containsAll(List.of("a.A", "b.B")));
+        assertEquals(0, reloaded.scanCount());
+
+        jar("b.jar", "b/B.class", "b/C.class");
+        Files.setLastModifiedTime(b, FileTime.fromMillis(Files.getLastModifiedTime(b).toMillis() + 1000));
+
+        var changed = new LoadTypes();
+        names = changed.typeNames(TypeNameIndex.open(indexFile), classpath, null).toList();
+        assertTrue(names.contains("b.C"));
+        assertEquals(1, changed.scanCount());
+    }
+
+    private Path jar(String name, String... entries) throws IOException {
+        var path = dir.resolve(name);
+        try (var out = new JarOutputStream(Files.newOutputStream(path))) {
+            for (var entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.closeEntry();
+            }
+        }
+
+        return path;
+    }
+}
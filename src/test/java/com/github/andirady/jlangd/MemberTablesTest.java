@@ -0,0 +1,62 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.source.util.*;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.lang.model.element.*;
+import javax.tools.*;
+
+import org.junit.jupiter.api.*;
+
+class MemberTablesTest {
+
+    private static final String SOURCE = """
+                                         class A {
+                                             enum Kind { ONE, TWO }
+                                             static int count;
+                                             private int size;
+                                             A() {}
+                                             static void reset() {}
+                                             void add() {}
+                                         }
+                                         """;
+
+    private static List<String> names(List<? extends Element> elements) {
+        return elements.stream().map(e -> e.getSimpleName().toString()).sorted().toList();
+    }
+
+    @Test
+    void should_sort_the_members_by_kind_and_remember_the_accessible_ones() throws Exception {
+        var task = (JavacTask) ToolProvider.getSystemJavaCompiler()
+                                           .getTask(null, null, new DiagnosticCollector<>(), null, null,
+                                                    List.of(new JavaSource(URI.create("file:///A.java"), SOURCE)));
+        task.analyze();
+        var elements = task.getElements();
+        var tables = new MemberTables(elements);
+        var a = elements.getTypeElement("A");
+        var table = tables.of(a);
+
+        assertSame(table, tables.of(a));
+        assertEquals(List.of("Kind"), names(table.types()));
+        assertEquals(List.of("ONE", "TWO"), names(tables.of(elements.getTypeElement("A.Kind")).enumConstants()));
+
+        var checks = new AtomicInteger();
+        var site = elements.getTypeElement("java.lang.Object");
+        var instance = table.instanceMembers(site, e -> {
+            checks.incrementAndGet();
+            return !e.getModifiers().contains(Modifier.PRIVATE);
+        });
+        assertTrue(names(instance).containsAll(List.of("add", "hashCode")));
+        assertFalse(names(instance).contains("size"));
+        assertFalse(names(instance).contains("count"));
+
+        var checked = checks.get();
+        assertSame(instance, table.instanceMembers(site, e -> fail()));
+        assertEquals(checked, checks.get());
+
+        assertEquals(List.of("Kind", "count", "reset"), names(table.staticMembers(null, e -> true)));
+    }
+}
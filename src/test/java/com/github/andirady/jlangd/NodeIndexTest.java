@@ -0,0 +1,83 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+import java.net.URI;
+import java.util.*;
+import javax.tools.*;
+
+import org.junit.jupiter.api.*;
+
+class NodeIndexTest {
+
+    private static final String SOURCE = """
+                                         import java.util.*;
+
+                                         class A {
+                                             List<String> names = new ArrayList<>();
+
+                                             int count(String prefix) {
+                                                 var n = 0;
+                                                 for (var name : names) {
+                                                     if (name.startsWith(prefix)) n++;
+                                                 }
+                                                 return n;
+                                             }
+                                         }
+                                         """;
+
+    @Test
+    void should_find_the_nodes_a_full_walk_finds() throws Exception {
+        var task = (JavacTask) ToolProvider.getSystemJavaCompiler()
+                                           .getTask(null, null, new DiagnosticCollector<>(), null, null,
+                                                    List.of(new JavaSource(URI.create("file:///A.java"), SOURCE)));
+        var tree = task.parse().iterator().next();
+        var positions = Trees.instance(task).getSourcePositions();
+        var index = NodeIndex.of(tree, positions);
+
+        // Every node with a position, in the order a walk meets them.
+        var all = new ArrayList<Tree>();
+        new TreeScanner<Void, Void>() {
+
+            @Override
+            public Void scan(Tree node, Void p) {
+                if (node != null && positions.getStartPosition(tree, node) >= 0) {
+                    all.add(node);
+                }
+
+                return super.scan(node, p);
+            }
+        }.scan(tree, null);
+
+        for (var offset = 0; offset <= SOURCE.length(); offset++) {
+            var at = offset;
+            var containing = all.stream()
+                                .filter(n -> positions.getStartPosition(tree, n) <= at
+                                             && at <= positions.getEndPosition(tree, n))
+                                .toList();
+            var enclosing = index.enclosing(offset);
+
+            assertEquals(Set.copyOf(containing), Set.copyOf(index.intersecting(offset, offset)), "at " + offset);
+            assertTrue(containing.containsAll(enclosing), "at " + offset);
+            if (!containing.isEmpty()) {
+                var innermost = index.innermost(offset);
+                assertSame(innermost, enclosing.get(enclosing.size() - 1));
+                // None of the others lies within it.
+                assertTrue(containing.stream().noneMatch(n -> n != innermost
+                                                             && index.start(n) >= index.start(innermost)
+                                                             && index.end(n) <= index.end(innermost)
+                                                             && index.end(n) - index.start(n)
+                                                                < index.end(innermost) - index.start(innermost)),
+                           "at " + offset);
+            }
+        }
+
+        var line = SOURCE.indexOf("if (");
+        var kinds = index.intersecting(line, SOURCE.indexOf('\n', line)).stream().map(Tree::getKind).toList();
+        assertTrue(kinds.containsAll(List.of(Tree.Kind.IF, Tree.Kind.METHOD_INVOCATION, Tree.Kind.POSTFIX_INCREMENT)));
+        assertTrue(index.enclosing(line).stream().anyMatch(n -> n.getKind() == Tree.Kind.METHOD));
+        assertEquals(Tree.Kind.IDENTIFIER, index.innermost(SOURCE.indexOf("prefix)) n")).getKind());
+    }
+}
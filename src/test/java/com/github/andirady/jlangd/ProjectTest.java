@@ -0,0 +1,432 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.tools.*;
+
+import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProjectTest {
+
+    private static final String SOURCE = """
+                                         class A {
+
+                                             int f() {
+                                                 return 1;
+                                             }
+
+                                             String g() {
+                                                 return 2;
+                                             }
+
+                                             int h() {
+                                                 return 3;
+                                             }
+                                         }
+                                         """;
+
+    private static final String UNUSED_IMPORT = """
+                                                import java.util.ArrayList;
+
+                                                class B {
+
+                                                    int f() {
+                                                        return 1;
+                                                    }
+
+                                                    int g() {
+                                                        return 2;
+                                                    }
+                                                }
+                                                """;
+
+    @TempDir
+    Path dir;
+
+    private Project newProject() {
+        var project = new Project(dir, StandardCharsets.UTF_8, List.of(), List.of(), dir, null);
+        project.setDiagnosticsConsumer(d -> {});
+        return project;
+    }
+
+    /**
+     * The hints of the unused symbol pass, collected as they are published.
+     */
+    private static List<PublishDiagnosticsParams> published(Project project) {
+        var published = new CopyOnWriteArrayList<PublishDiagnosticsParams>();
+        project.textDocService = new JavaTextDocumentService() {
+
+            @Override
+            void publishDiagnostics(PublishDiagnosticsParams params) {
+                published.add(params);
+            }
+        };
+        return published;
+    }
+
+    private static List<String> describe(List<javax.tools.Diagnostic<? extends JavaFileObject>> diags) {
+        return diags.stream()
+                    .map(d -> d.getCode() + "@" + d.getPosition() + "-" + d.getEndPosition()
+                              + ":" + d.getLineNumber() + "," + d.getColumnNumber())
+                    .toList();
+    }
+
+    private List<String> diagnoseFully(String text) {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        project.addJavaSource(uri, text);
+        return describe(project.diagnose(uri));
+    }
+
+    @Test
+    void should_only_attribute_the_edited_method_when_edit_is_within_its_body() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, SOURCE);
+        project.diagnose(uri);
+
+        // Make f() return a String, which is an error reported within f.
+        source.patch(new Range(new Position(3, 15), new Position(3, 16)), "\"one\"\n");
+        var diags = describe(project.diagnose(uri));
+
+        try (var result = project.taskForUri(uri, new Position(3, 10))) {
+            assertFalse(result.pruned().isEmpty());
+        }
+        assertEquals(diagnoseFully(SOURCE.replace("return 1;", "return \"one\"\n;")), diags);
+        assertEquals(2, diags.size());
+    }
+
+    @Test
+    void should_not_take_a_patch_made_while_compiling_as_diagnosed() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, SOURCE);
+        var patching = new AtomicBoolean(true);
+        project.setDiagnosticsConsumer(d -> {
+            // Once parsed, keeping the length.
+            if (patching.compareAndSet(true, false)) {
+                source.patch(new Range(new Position(3, 15), new Position(3, 16)), "x");
+            }
+        });
+        project.diagnose(uri);
+
+        source.patch(new Range(new Position(11, 15), new Position(11, 16)), "4");
+        var diags = describe(project.diagnose(uri));
+
+        assertEquals(diagnoseFully(SOURCE.replace("return 1;", "return x;").replace("return 3;", "return 4;")), diags);
+    }
+
+    @Test
+    void should_diagnose_fully_when_pruned_body_is_needed() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, SOURCE);
+        project.diagnose(uri);
+        source.patch(new Range(new Position(3, 15), new Position(3, 16)), "4");
+        project.diagnose(uri);
+
+        var result = project.taskForUri(uri, new Position(11, 15));
+
+        assertTrue(result.pruned().isEmpty());
+    }
+
+    @Test
+    void should_diagnose_fully_when_structure_changes() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, SOURCE);
+        project.diagnose(uri);
+
+        // Closes f() early, so the rest of its body becomes a member.
+        source.patch(new Range(new Position(3, 17), new Position(3, 17)), "} int x = 1; {");
+        var diags = describe(project.diagnose(uri));
+
+        try (var result = project.taskForUri(uri, new Position(3, 10))) {
+            assertTrue(result.pruned().isEmpty());
+        }
+        assertEquals(diagnoseFully(SOURCE.replace("return 1;", "return 1;} int x = 1; {")), diags);
+    }
+
+    @Test
+    void should_serve_latest_snapshot_while_compiling() throws Exception {
+        var compiling = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var project = new Project(dir, StandardCharsets.UTF_8, List.of(), List.of(), dir, null);
+        var a = dir.resolve("A.java").toUri().toString();
+        var b = dir.resolve("B.java").toUri().toString();
+        project.setDiagnosticsConsumer(d -> {
+            if (d.stream().anyMatch(x -> x.getSource().toUri().toString().equals(b))) {
+                compiling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        project.addJavaSource(a, SOURCE);
+        project.addJavaSource(b, "class B { int x = \"\"; }");
+        project.diagnose(a);
+        var before = project.snapshot(a).orElseThrow().version();
+
+        var diagnosing = CompletableFuture.runAsync(() -> project.diagnose(b));
+        try {
+            assertTrue(compiling.await(30, TimeUnit.SECONDS));
+            var reader = CompletableFuture.supplyAsync(() -> project.taskForUri(a).findTreeForUri(a));
+
+            assertTrue(reader.get(5, TimeUnit.SECONDS).isPresent());
+            assertEquals(before, project.snapshot(a).orElseThrow().version());
+        } finally {
+            release.countDown();
+        }
+
+        diagnosing.get(30, TimeUnit.SECONDS);
+        assertTrue(project.snapshot(b).orElseThrow().version() > before);
+    }
+
+    @Test
+    void should_keep_the_result_of_each_source() {
+        var project = newProject();
+        var a = dir.resolve("A.java").toUri().toString();
+        var b = dir.resolve("B.java").toUri().toString();
+        var source = project.addJavaSource(a, SOURCE);
+        project.addJavaSource(b, "class B {}");
+        project.diagnose(a);
+        project.diagnose(b);
+        var snapshot = project.snapshot(a).orElseThrow();
+
+        var result = project.taskForUri(a);
+
+        assertSame(snapshot.result(), result);
+        assertNotSame(project.snapshot(b).orElseThrow().task(), result.task());
+
+        source.patch(new Range(new Position(3, 15), new Position(3, 16)), "4");
+
+        assertNotSame(result, project.taskForUri(a));
+        assertTrue(project.snapshot(a).orElseThrow().version() > snapshot.version());
+    }
+
+    @Test
+    void should_let_one_reader_at_a_time_use_a_result() throws Exception {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        project.addJavaSource(uri, SOURCE);
+        project.diagnose(uri);
+        var closed = new AtomicBoolean();
+
+        CompletableFuture<Boolean> second;
+        try (var first = project.taskForUri(uri)) {
+            second = CompletableFuture.supplyAsync(() -> {
+                try (var result = project.taskForUri(uri)) {
+                    assertSame(first, result);
+                    return closed.get();
+                }
+            });
+            Thread.sleep(200);
+            closed.set(true);
+        }
+
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void should_reuse_the_compiler_of_a_retired_snapshot() throws Exception {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        var source = project.addJavaSource(uri, SOURCE);
+        project.diagnose(uri);
+        var first = project.snapshot(uri).orElseThrow();
+        var string = first.task().getElements().getTypeElement("java.lang.String");
+
+        // Adding members changes the structure, so each diagnose is complete.
+        source.patch(new Range(new Position(13, 0), new Position(13, 0)), "void k() {}\n");
+        project.diagnose(uri);
+        first.result().lease().returned().get(5, TimeUnit.SECONDS);
+        source.patch(new Range(new Position(13, 0), new Position(13, 0)), "void l() {}\n");
+        project.diagnose(uri);
+
+        var third = project.snapshot(uri).orElseThrow();
+        assertSame(string, third.task().getElements().getTypeElement("java.lang.String"));
+        assertTrue(third.result().pruned().isEmpty());
+    }
+
+    @Test
+    void should_abandon_a_cancelled_diagnose() {
+        var project = newProject();
+        var uri = dir.resolve("A.java").toUri().toString();
+        project.addJavaSource(uri, SOURCE);
+        var checks = new AtomicInteger();
+        CancelChecker cancelInAnalyze = () -> {
+            if (checks.incrementAndGet() > 2) {
+                throw new CancellationException();
+            }
+        };
+
+        assertThrows(CancellationException.class, () -> project.diagnose(uri, cancelInAnalyze));
+        assertTrue(checks.get() > 2);
+        assertTrue(project.snapshot(uri).isEmpty());
+
+        assertEquals(1, project.diagnose(uri).size());
+        assertTrue(project.snapshot(uri).isPresent());
+    }
+
+    @Test
+    void should_run_the_unused_pass_inline_when_the_compilation_queue_is_full() throws Exception {
+        var project = newProject();
+        var published = published(project);
+        var uri = dir.resolve("B.java").toUri().toString();
+        project.addJavaSource(uri, UNUSED_IMPORT);
+
+        // Both threads are held first, so the queue cannot drain.
+        var release = new CountDownLatch(1);
+        var threads = Workers.COMPILATION.getMaximumPoolSize();
+        var holding = new CountDownLatch(threads);
+        Runnable hold = () -> {
+            holding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            for (var i = 0; i < threads; i++) {
+                Workers.COMPILATION.execute(hold);
+            }
+            assertTrue(holding.await(5, TimeUnit.SECONDS));
+            while (true) {
+                try {
+                    Workers.COMPILATION.execute(hold);
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+
+            assertEquals(List.of(), project.diagnose(uri));
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(1, published.size());
+        assertEquals("never used", published.get(0).getDiagnostics().get(0).getMessage());
+    }
+
+    @Test
+    void should_keep_the_unused_hints_when_diagnosing_incrementally() throws Exception {
+        var project = newProject();
+        var published = published(project);
+        var uri = dir.resolve("B.java").toUri().toString();
+        var source = project.addJavaSource(uri, UNUSED_IMPORT);
+        project.diagnose(uri);
+        for (var i = 0; i < 100 && published.isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, published.size());
+
+        source.patch(new Range(new Position(5, 15), new Position(5, 16)), "10\n");
+        project.diagnose(uri);
+
+        try (var result = project.taskForUri(uri, new Position(5, 10))) {
+            assertFalse(result.pruned().isEmpty());
+        }
+        assertEquals(2, published.size());
+        assertEquals(published.get(0).getDiagnostics(), published.get(1).getDiagnostics());
+    }
+
+    @Test
+    void should_find_the_uses_of_imports_in_the_edited_body_again() throws Exception {
+        var project = newProject();
+        var published = published(project);
+        var uri = dir.resolve("B.java").toUri().toString();
+        var source = project.addJavaSource(uri, UNUSED_IMPORT);
+        project.diagnose(uri);
+        for (var i = 0; i < 100 && published.isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, published.size());
+
+        // Now used, the hint is not published again.
+        var use = "new ArrayList<String>().size()";
+        source.patch(new Range(new Position(5, 15), new Position(5, 16)), use);
+        project.diagnose(uri);
+        try (var result = project.taskForUri(uri, new Position(5, 10))) {
+            assertFalse(result.pruned().isEmpty());
+        }
+        assertEquals(1, published.size());
+
+        // No longer used.
+        source.patch(new Range(new Position(5, 15), new Position(5, 15 + use.length())), "1");
+        project.diagnose(uri);
+        try (var result = project.taskForUri(uri, new Position(5, 10))) {
+            assertFalse(result.pruned().isEmpty());
+        }
+        assertEquals(2, published.size());
+        assertEquals(published.get(0).getDiagnostics(), published.get(1).getDiagnostics());
+    }
+
+    @Test
+    void should_find_the_source_of_a_nested_type() throws Exception {
+        var project = newProject();
+        Files.createDirectories(dir.resolve("p"));
+        var b = Files.writeString(dir.resolve("p/B.java"), "package p; public class B { public static class C {} }");
+
+        try (var result = project.taskForUri(b.toUri().toString())) {
+            var c = result.task().getElements().getTypeElement("p.B.C");
+            assertEquals(Optional.of(b.toUri()), project.findUriForType(c));
+            var string = result.task().getElements().getTypeElement("java.lang.String");
+            assertEquals(Optional.empty(), project.findUriForType(string));
+        }
+    }
+
+    @Test
+    void should_build_the_saved_source_and_its_dependents() throws Exception {
+        var project = newProject();
+        var a = dir.resolve("A.java").toUri().toString();
+        var b = dir.resolve("B.java").toUri().toString();
+        var c = dir.resolve("C.java").toUri().toString();
+        project.addJavaSource(a, "class A {}");
+        project.addJavaSource(b, "class B { A a; }");
+        project.addJavaSource(c, "class C {}");
+
+        // Nothing is recorded before the first build.
+        assertEquals(Set.of(a, b, c), Set.copyOf(project.build(a).uris()));
+
+        assertEquals(Set.of(a, b), Set.copyOf(project.build(a).uris()));
+        var build = project.build(c);
+        assertEquals(List.of(c), build.uris());
+        assertEquals(List.of(), build.diagnostics());
+    }
+
+    @Test
+    void should_write_only_the_changed_class_files() throws Exception {
+        var classes = dir.resolve("classes");
+        var project = new Project(dir, StandardCharsets.UTF_8, List.of(), List.of(), dir, classes);
+        project.setDiagnosticsConsumer(d -> {});
+        var a = dir.resolve("A.java").toUri().toString();
+        var b = dir.resolve("B.java").toUri().toString();
+        var sourceA = project.addJavaSource(a, "class A {}");
+        project.addJavaSource(b, "class B { A a; }");
+
+        project.build(a);
+        project.generated().get(5, TimeUnit.SECONDS);
+        var classA = classes.resolve("A.class");
+        var classB = classes.resolve("B.class");
+        assertTrue(Files.isRegularFile(classA));
+        Files.setLastModifiedTime(classB, FileTime.fromMillis(0));
+
+        sourceA.patch(new Range(new Position(0, 9), new Position(0, 9)), "int f;");
+        project.build(a);
+        project.generated().get(5, TimeUnit.SECONDS);
+        assertEquals(0, Files.getLastModifiedTime(classB).toMillis());
+        assertTrue(Files.getLastModifiedTime(classA).toMillis() > 0);
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.*;
+
+class RopeTest {
+
+    @Test
+    void should_match_string_builder_after_random_edits() {
+        var random = new Random(42);
+        var expected = new StringBuilder("class A {\n}\n".repeat(500));
+        var rope = Rope.of(expected);
+
+        for (var i = 0; i < 5_000; i++) {
+            var start = random.nextInt(expected.length() + 1);
+            var end = Math.min(expected.length(), start + random.nextInt(i % 100 == 0 ? 2_000 : 3));
+            var text = i % 100 == 50 ? "class B {}\n".repeat(200)
+                     : random.nextInt(4) == 0 ? ""
+                     : "x\n".repeat(random.nextInt(3) + 1);
+            expected.replace(start, end, text);
+            rope = rope.replace(start, end, text);
+        }
+
+        assertEquals(expected.toString(), rope.toString());
+        assertEquals(expected.length(), rope.length());
+        for (var i = 0; i < expected.length(); i += 7) {
+            assertEquals(expected.charAt(i), rope.charAt(i));
+        }
+        assertEquals(expected.substring(100, 3_000), rope.subSequence(100, 3_000).toString());
+        assertTrue(rope.height() < 2 * (32 - Integer.numberOfLeadingZeros(expected.length())),
+                   "height " + rope.height());
+    }
+
+    @Test
+    void should_reject_range_outside_of_text() {
+        var rope = Rope.of("abc");
+
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.replace(2, 4, ""));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.charAt(3));
+    }
+}
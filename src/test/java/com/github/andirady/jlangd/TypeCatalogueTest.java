@@ -0,0 +1,67 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+class TypeCatalogueTest {
+
+    TypeCatalogue catalogue = new TypeCatalogue(List.of(
+            new TypeCatalogue.Segment(null, List.of("java.util.HashMap",
+                                                    "java.util.Map",
+                                                    "java.util.Map.Entry",
+                                                    "java.util.concurrent.ConcurrentHashMap",
+                                                    "a.Ma")),
+            new TypeCatalogue.Segment(null, List.of("b.Entry", "b.MapEntry"))));
+
+    @Test
+    void should_find_by_prefix() {
+        assertEquals(Set.of("java.util.Map", "b.MapEntry", "a.Ma"),
+                     Set.copyOf(catalogue.startingWith("Ma").toList()));
+        assertEquals(List.of(), catalogue.startingWith("Zz").toList());
+    }
+
+    @Test
+    void should_find_by_infix() {
+        assertEquals(Set.of("java.util.HashMap", "java.util.concurrent.ConcurrentHashMap"),
+                     Set.copyOf(catalogue.containing("HashM").toList()));
+        assertEquals(Set.of("java.util.Map.Entry", "b.Entry", "b.MapEntry"),
+                     Set.copyOf(catalogue.containing("try").toList()));
+        assertEquals(Set.of("java.util.HashMap", "java.util.Map", "java.util.concurrent.ConcurrentHashMap",
+                            "b.MapEntry", "a.Ma"),
+                     Set.copyOf(catalogue.containing("Ma").toList()));
+        assertEquals(List.of(), catalogue.containing("Mapz").toList());
+    }
+
+    @Test
+    void should_index_the_grams_on_the_first_substring_query() {
+        var segment = new TypeCatalogue.Segment(null, List.of("java.util.HashMap", "java.util.Map"));
+        assertEquals(0, segment.indexFootprint());
+
+        segment.startingWith("Ma").toList();
+        assertEquals(0, segment.indexFootprint());
+
+        assertEquals(List.of("java.util.HashMap"), segment.containing("sh").toList());
+        assertTrue(segment.indexFootprint() > 0);
+    }
+
+    @Test
+    void should_find_by_simple_name() {
+        assertEquals(Set.of("java.util.Map.Entry", "b.Entry"), Set.copyOf(catalogue.named("Entry").toList()));
+        assertEquals(List.of("java.util.Map"), catalogue.named("Map").toList());
+    }
+
+    @Test
+    void should_match_linear_scan_over_runtime_image() {
+        var jdk = LoadTypes.catalogue(TypeNameIndex.open(null), "");
+        var all = jdk.stream().toList();
+        for (var query : List.of("List", "Compl", "ap", "Zzz")) {
+            var expected = all.stream()
+                              .filter(n -> n.substring(n.lastIndexOf('.') + 1).contains(query))
+                              .sorted()
+                              .toList();
+            assertEquals(expected, jdk.containing(query).sorted().toList());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.*;
+
+class WorkersTest {
+
+    @Test
+    void should_track_queue_depth_and_reject_when_full() throws Exception {
+        var pool = new Workers.Pool("test", 1, 2);
+        var release = new CountDownLatch(1);
+        var thread = new CompletableFuture<String>();
+        try {
+            pool.execute(() -> {
+                thread.complete(Thread.currentThread().getName());
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertEquals("test-1", thread.get(5, TimeUnit.SECONDS));
+
+            pool.execute(() -> {});
+            pool.execute(() -> {});
+
+            assertEquals(2, pool.queued());
+            assertThrows(RejectedExecutionException.class, () -> pool.execute(() -> {}));
+            assertEquals(1, pool.rejected());
+        } finally {
+            release.countDown();
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.queued());
+        assertEquals(2, pool.peakQueued());
+        assertEquals(3, pool.getCompletedTaskCount());
+    }
+
+    @Test
+    void should_run_compiler_work_of_virtual_threads_on_the_compilation_pool() throws Exception {
+        var name = new CompletableFuture<String>();
+        Thread.ofVirtual().start(() -> name.complete(Workers.compute(() -> Thread.currentThread().getName())));
+
+        assertTrue(name.get(5, TimeUnit.SECONDS).startsWith("compilation-"));
+        assertEquals(Thread.currentThread().getName(), Workers.compute(() -> Thread.currentThread().getName()));
+    }
+
+    @Test
+    void should_wait_for_all_pools_within_one_timeout() throws Exception {
+        var pools = List.<ExecutorService>of(new Workers.Pool("a", 1, 1), new Workers.Pool("b", 1, 1),
+                                             new Workers.Pool("c", 1, 1));
+        var never = new CountDownLatch(1);
+        for (var pool : pools) {
+            pool.execute(() -> {
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        var t0 = System.nanoTime();
+        Workers.shutdown(pools, 500);
+        var elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+
+        assertTrue(elapsed < 1000, elapsed + " ms");
+        for (var pool : pools) {
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+}
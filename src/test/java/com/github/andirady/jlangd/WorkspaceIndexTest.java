@@ -0,0 +1,125 @@
+package com.github.andirady.jlangd;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.lsp4j.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+class WorkspaceIndexTest {
+
+    private static final String B = """
+                                    package p;
+
+                                    public class B {
+
+                                        enum Kind { ONE, TWO }
+
+                                        int count;
+
+                                        B(int count) {
+                                            this.count = count;
+                                        }
+
+                                        void add(String s) {}
+
+                                        void add(List<String> s, int... n) {}
+                                    }
+                                    """;
+
+    @TempDir
+    Path dir;
+
+    private Project project;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(dir.resolve("p"));
+        Files.writeString(dir.resolve("p/B.java"), B);
+        project = new Project(dir, StandardCharsets.UTF_8, List.of(), List.of(), dir, null);
+        project.workspaceIndex().start().get(10, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        project.close();
+    }
+
+    private Location location(int line, int character, int length) {
+        var uri = dir.resolve("p/B.java").toUri().toString();
+        return new Location(uri, new Range(new Position(line, character), new Position(line, character + length)));
+    }
+
+    @Test
+    void should_find_the_declarations_of_unopened_sources() {
+        var index = project.workspaceIndex();
+
+        assertEquals(Optional.of(location(2, 13, 1)), index.findType("p.B"));
+        assertEquals(Optional.of(location(4, 9, 4)), index.findType("p.B.Kind"));
+        assertEquals(Optional.of(location(8, 4, 1)), index.findMethod("p.B", "B", List.of("int")));
+        assertEquals(Optional.of(location(12, 9, 3)), index.findMethod("p.B", "add", List.of("java.lang.String")));
+        assertEquals(Optional.of(location(14, 9, 3)),
+                     index.findMethod("p.B", "add", List.of("java.util.List<java.lang.String>", "int[]")));
+        assertEquals(List.of("ONE"), index.query("on").map(WorkspaceIndex.Symbol::name).toList());
+        assertEquals(SymbolKind.EnumMember, index.query("TWO").findFirst().orElseThrow().kind());
+    }
+
+    @Test
+    void should_index_changed_sources_again() throws Exception {
+        Files.writeString(dir.resolve("p/C.java"), "package p; class C { void run() {} }");
+        var index = project.workspaceIndex();
+        for (var i = 0; i < 100 && index.findType("p.C").isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(index.findType("p.C").isPresent());
+
+        var uri = dir.resolve("p/B.java").toUri().toString();
+        project.addJavaSource(uri, "package p;\nclass B { void open() {} }");
+        assertEquals(Optional.of(location(1, 15, 4)), index.findMethod("p.B", "open", List.of()));
+    }
+
+    @Test
+    void should_index_with_the_workers_the_full_queue_takes() throws Exception {
+        var pool = (ThreadPoolExecutor) Workers.INDEXING;
+        var release = new CountDownLatch(1);
+        var threads = pool.getMaximumPoolSize();
+        var holding = new CountDownLatch(threads);
+        Runnable hold = () -> {
+            holding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        var other = new Project(dir, StandardCharsets.UTF_8, List.of(), List.of(), dir, null);
+        CompletableFuture<Void> indexed;
+        try {
+            for (var i = 0; i < threads; i++) {
+                pool.execute(hold);
+            }
+            assertTrue(holding.await(5, TimeUnit.SECONDS));
+            // Room for a single worker.
+            for (var i = pool.getQueue().remainingCapacity(); i > 1; i--) {
+                pool.execute(hold);
+            }
+
+            indexed = other.workspaceIndex().start();
+        } finally {
+            release.countDown();
+        }
+
+        try {
+            indexed.get(10, TimeUnit.SECONDS);
+            assertEquals(Optional.of(location(2, 13, 1)), other.workspaceIndex().findType("p.B"));
+        } finally {
+            other.close();
+        }
+    }
+}